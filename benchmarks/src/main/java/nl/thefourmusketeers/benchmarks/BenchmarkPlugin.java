@@ -0,0 +1,205 @@
+package nl.thefourmusketeers.benchmarks;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.PluginDescription;
+import net.md_5.bungee.api.plugin.PluginManager;
+import net.md_5.bungee.api.scheduler.TaskScheduler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * The plugin running against a stubbed proxy and a temporary data folder, so
+ * the hot paths can be benchmarked without a BungeeCord instance. Scheduled
+ * tasks never run, the benchmarks invoke whatever they measure themselves.
+ *
+ * @author Daniël van de Giessen
+ */
+public class BenchmarkPlugin extends MusketeersPlugin {
+    /**
+     * The stubbed proxy.
+     */
+    private final ProxyServer             proxy;
+
+    /**
+     * The description of the plugin.
+     */
+    private final PluginDescription       description;
+
+    /**
+     * The logger of the plugin, which discards everything.
+     */
+    private final Logger                  logger;
+
+    /**
+     * The temporary folder containing the plugin folder.
+     */
+    private final Path                    folder;
+
+    /**
+     * The stubbed servers, indexed by name.
+     */
+    private final Map<String, ServerInfo> servers = new LinkedHashMap<String, ServerInfo>();
+
+    /**
+     * The stubbed online players, which are all whitelisted.
+     */
+    private final List<ProxiedPlayer>     players = new ArrayList<ProxiedPlayer>();
+
+    /**
+     * Constructs and enables a new plugin.
+     *
+     * @param serverCount
+     *            The number of servers.
+     * @param playerCount
+     *            The number of online players, spread over the servers.
+     * @param adminCount
+     *            The number of online players holding every permission.
+     * @throws IOException
+     *             When the temporary folder could not be created.
+     * @throws SQLException
+     *             When the players could not be whitelisted.
+     */
+    public BenchmarkPlugin(final int serverCount, final int playerCount, final int adminCount) throws IOException, SQLException {
+        this.folder = Files.createTempDirectory("musketeers-benchmark");
+        this.description = new PluginDescription();
+        this.description.setName("TheFourMusketeers");
+        this.logger = Logger.getLogger("TheFourMusketeers-benchmark");
+        this.logger.setLevel(Level.OFF);
+
+        // Players and servers
+        final List<List<ProxiedPlayer>> serverPlayers = new ArrayList<List<ProxiedPlayer>>();
+        for (int i = 0; i < serverCount; i++) {
+            serverPlayers.add(new ArrayList<ProxiedPlayer>());
+        }
+        for (int i = 0; i < playerCount; i++) {
+            final ProxiedPlayer player = createPlayer("player" + i, i < adminCount);
+            this.players.add(player);
+            serverPlayers.get(i % serverCount).add(player);
+        }
+        for (int i = 0; i < serverCount; i++) {
+            this.servers.put("server" + i, createServer("server" + i, serverPlayers.get(i)));
+        }
+
+        // Proxy
+        this.proxy = mock(ProxyServer.class);
+        when(this.proxy.getPluginsFolder()).thenReturn(this.folder.toFile());
+        when(this.proxy.getPluginManager()).thenReturn(mock(PluginManager.class));
+        when(this.proxy.getScheduler()).thenReturn(mock(TaskScheduler.class));
+        when(this.proxy.getServers()).thenReturn(this.servers);
+        when(this.proxy.getPlayers()).thenReturn(Collections.unmodifiableList(this.players));
+        for (final ProxiedPlayer player : this.players) {
+            when(this.proxy.getPlayer(player.getUniqueId())).thenReturn(player);
+        }
+
+        // Enable the plugin with every online player whitelisted
+        this.onEnable();
+        final Map<UUID, String> whitelist = new LinkedHashMap<UUID, String>();
+        for (final ProxiedPlayer player : this.players) {
+            whitelist.put(player.getUniqueId(), player.getName());
+        }
+        this.getWhitelistHelper().write(whitelist);
+        this.getWhitelistHelper().reload();
+    }
+
+    /**
+     * Creates a stubbed player.
+     *
+     * @param name
+     *            The name of the player.
+     * @param admin
+     *            Whether the player holds every permission.
+     * @return The player.
+     */
+    public static ProxiedPlayer createPlayer(final String name, final boolean admin) {
+        final ProxiedPlayer player = mock(ProxiedPlayer.class, withSettings().stubOnly());
+        when(player.getUniqueId()).thenReturn(UUID.nameUUIDFromBytes(name.getBytes()));
+        when(player.getName()).thenReturn(name);
+        when(player.getDisplayName()).thenReturn(name);
+        when(player.getAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 25565));
+        when(player.hasPermission(anyString())).thenReturn(admin);
+        return player;
+    }
+
+    /**
+     * Creates a stubbed server.
+     *
+     * @param name
+     *            The name of the server.
+     * @param players
+     *            The players on the server.
+     * @return The server.
+     */
+    public static ServerInfo createServer(final String name, final Collection<ProxiedPlayer> players) {
+        final ServerInfo server = mock(ServerInfo.class, withSettings().stubOnly());
+        when(server.getName()).thenReturn(name);
+        when(server.getPlayers()).thenReturn(players);
+        return server;
+    }
+
+    /**
+     * @return The stubbed servers, indexed by name.
+     */
+    public Map<String, ServerInfo> getServers() {
+        return this.servers;
+    }
+
+    /**
+     * @return The stubbed online players.
+     */
+    public List<ProxiedPlayer> getPlayers() {
+        return this.players;
+    }
+
+    /**
+     * Disables the plugin and removes the temporary folder.
+     *
+     * @throws IOException
+     *             When the temporary folder could not be removed.
+     */
+    public void close() throws IOException {
+        this.onDisable();
+        try (final Stream<Path> paths = Files.walk(this.folder)) {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Override
+    public ProxyServer getProxy() {
+        return this.proxy;
+    }
+
+    @Override
+    public PluginDescription getDescription() {
+        return this.description;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return this.logger;
+    }
+}
@@ -0,0 +1,66 @@
+package nl.thefourmusketeers.benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.md_5.bungee.api.chat.TextComponent;
+
+/**
+ * Benchmark of building messages and sending them to the players holding a
+ * permission, with one in hundred online players holding it.
+ *
+ * @author Daniël van de Giessen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBenchmark {
+    /**
+     * The number of online players.
+     */
+    @Param({ "100", "1000", "10000" })
+    public int              players;
+
+    /**
+     * The plugin instance.
+     */
+    private BenchmarkPlugin plugin;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        this.plugin = new BenchmarkPlugin(10, this.players, this.players / 100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.plugin.close();
+    }
+
+    @Benchmark
+    public TextComponent buildMessage() {
+        return this.plugin.getMessageHelper().buildMessage("whitelist-notify", "player0");
+    }
+
+    @Benchmark
+    public void messagePermission() {
+        this.plugin.getMessageHelper().messagePermission("whitelist.notify", "whitelist-notify", "player0");
+    }
+}
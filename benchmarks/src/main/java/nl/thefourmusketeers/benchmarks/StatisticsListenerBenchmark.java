@@ -0,0 +1,102 @@
+package nl.thefourmusketeers.benchmarks;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.connection.Server;
+import net.md_5.bungee.api.event.ServerConnectedEvent;
+import net.md_5.bungee.api.event.ServerDisconnectEvent;
+import nl.thefourmusketeers.listeners.StatisticsServerConnectedListener;
+import nl.thefourmusketeers.listeners.StatisticsServerDisconnectListener;
+
+/**
+ * Benchmark of the statistics listeners, measuring the time the event thread
+ * spends queueing a session while the writer drains the queue into the
+ * temporary database.
+ *
+ * @author Daniël van de Giessen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsListenerBenchmark {
+    /**
+     * The number of players connecting.
+     */
+    private static final int                   PLAYERS = 1000;
+
+    /**
+     * The plugin instance.
+     */
+    private BenchmarkPlugin                    plugin;
+
+    /**
+     * The server connected listener being benchmarked.
+     */
+    private StatisticsServerConnectedListener  connectedListener;
+
+    /**
+     * The server disconnect listener being benchmarked.
+     */
+    private StatisticsServerDisconnectListener disconnectListener;
+
+    /**
+     * The server the players connect to.
+     */
+    private ServerInfo                         target;
+
+    /**
+     * The connection to the server.
+     */
+    private Server                             server;
+
+    /**
+     * The index of the next connecting player.
+     */
+    private int                                next    = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        this.plugin = new BenchmarkPlugin(1, PLAYERS, 0);
+        this.connectedListener = new StatisticsServerConnectedListener(this.plugin);
+        this.disconnectListener = new StatisticsServerDisconnectListener(this.plugin);
+        this.target = this.plugin.getServers().values().iterator().next();
+        this.server = mock(Server.class);
+        when(this.server.getInfo()).thenReturn(this.target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.plugin.close();
+    }
+
+    @Benchmark
+    public void onServerConnectedAndDisconnect() {
+        final ProxiedPlayer player = this.plugin.getPlayers().get(this.next);
+        this.next = this.next + 1 == PLAYERS ? 0 : this.next + 1;
+        this.connectedListener.onServerConnected(new ServerConnectedEvent(player, this.server));
+        this.disconnectListener.onServerDisconnect(new ServerDisconnectEvent(player, this.target));
+    }
+}
@@ -0,0 +1,102 @@
+package nl.thefourmusketeers.benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.thefourmusketeers.tasks.StatisticsTask;
+
+/**
+ * Benchmark of a single tick of the statistics task. With changing player
+ * counts every tick finishes a run for every server, so the rows are written
+ * to the temporary database in the background. The player counts are changed
+ * through the population helper outside of the measured tick.
+ *
+ * @author Daniël van de Giessen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsTaskBenchmark {
+    /**
+     * The number of servers.
+     */
+    @Param({ "10", "100", "1000" })
+    public int              servers;
+
+    /**
+     * Whether the player counts stay the same or change every tick.
+     */
+    @Param({ "stable", "changing" })
+    public String           playerCounts;
+
+    /**
+     * The plugin instance.
+     */
+    private BenchmarkPlugin plugin;
+
+    /**
+     * The task being benchmarked.
+     */
+    private StatisticsTask  task;
+
+    /**
+     * The number of ticks so far.
+     */
+    private int             tick;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        this.plugin = new BenchmarkPlugin(this.servers, this.servers * 10, 0);
+        this.task = new StatisticsTask(this.plugin);
+    }
+
+    /**
+     * Changes the player count of every server before each tick, by moving a
+     * visiting player onto or off every server.
+     */
+    @Setup(Level.Invocation)
+    public void change() {
+        if (!this.playerCounts.equals("changing")) {
+            return;
+        }
+        final boolean arrive = this.tick++ % 2 == 0;
+        for (final String server : this.plugin.getServers().keySet()) {
+            final UUID visitor = UUID.nameUUIDFromBytes(server.getBytes());
+            if (arrive) {
+                this.plugin.getPopulationHelper().connected(visitor, server);
+            } else {
+                this.plugin.getPopulationHelper().disconnected(visitor, server);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.task.flush();
+        this.plugin.close();
+    }
+
+    @Benchmark
+    public void run() {
+        this.task.run();
+    }
+}
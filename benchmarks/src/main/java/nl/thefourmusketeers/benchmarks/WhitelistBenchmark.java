@@ -0,0 +1,123 @@
+package nl.thefourmusketeers.benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.ServerConnectEvent;
+import nl.thefourmusketeers.listeners.WhitelistServerConnectListener;
+
+/**
+ * Benchmark of the whitelist check on server connects.
+ *
+ * The lookup parameter selects players which were approved at login, players
+ * which are whitelisted but still have to be looked up, or players which are
+ * not whitelisted at all. The access parameter selects whether the same
+ * player connects every time, or whether the connects cycle through many
+ * players so the index is mostly cold in the CPU caches.
+ *
+ * @author Daniël van de Giessen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WhitelistBenchmark {
+    /**
+     * The number of whitelisted players.
+     */
+    private static final int               PLAYERS = 100000;
+
+    /**
+     * Whether the players are approved, whitelisted or not whitelisted.
+     */
+    @Param({ "approved", "hit", "miss" })
+    public String                          lookup;
+
+    /**
+     * Whether the same player connects every time, or many different players.
+     */
+    @Param({ "warm", "cold" })
+    public String                          access;
+
+    /**
+     * The plugin instance.
+     */
+    private BenchmarkPlugin                plugin;
+
+    /**
+     * The listener being benchmarked.
+     */
+    private WhitelistServerConnectListener listener;
+
+    /**
+     * The server the players connect to.
+     */
+    private ServerInfo                     target;
+
+    /**
+     * The connecting players.
+     */
+    private ProxiedPlayer[]                players;
+
+    /**
+     * The index of the next connecting player.
+     */
+    private int                            next    = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        this.plugin = new BenchmarkPlugin(1, PLAYERS, 0);
+        this.listener = new WhitelistServerConnectListener(this.plugin);
+        this.target = this.plugin.getServers().values().iterator().next();
+
+        final List<ProxiedPlayer> players = new ArrayList<ProxiedPlayer>();
+        final int count = this.access.equals("warm") ? 1 : PLAYERS;
+        for (int i = 0; i < count; i++) {
+            if (this.lookup.equals("miss")) {
+                players.add(BenchmarkPlugin.createPlayer("stranger" + i, false));
+            } else {
+                final ProxiedPlayer player = this.plugin.getPlayers().get(i);
+                if (this.lookup.equals("approved")) {
+                    this.plugin.getWhitelistHelper().approve(player.getUniqueId());
+                }
+                players.add(player);
+            }
+        }
+        this.players = players.toArray(new ProxiedPlayer[players.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.plugin.close();
+    }
+
+    @Benchmark
+    public ServerConnectEvent onServerConnect() {
+        final ProxiedPlayer player = this.players[this.next];
+        this.next = this.next + 1 == this.players.length ? 0 : this.next + 1;
+        final ServerConnectEvent event = new ServerConnectEvent(player, this.target);
+        this.listener.onServerConnect(event);
+        return event;
+    }
+}
@@ -1,20 +1,49 @@
 package nl.thefourmusketeers;
 
-import java.sql.Connection;
+import java.io.IOException;
 
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.api.plugin.PluginManager;
 import net.md_5.bungee.api.scheduler.TaskScheduler;
 import net.md_5.bungee.config.Configuration;
+import nl.thefourmusketeers.api.PopulationService;
+import nl.thefourmusketeers.commands.MusketeersCommand;
+import nl.thefourmusketeers.commands.PlaytimeCommand;
 import nl.thefourmusketeers.commands.WhitelistCommand;
 import nl.thefourmusketeers.helpers.ConfigHelper;
 import nl.thefourmusketeers.helpers.DatabaseHelper;
 import nl.thefourmusketeers.helpers.MessageHelper;
+import nl.thefourmusketeers.helpers.MetricsHelper;
+import nl.thefourmusketeers.helpers.PermissionHelper;
+import nl.thefourmusketeers.helpers.PlaytimeHelper;
+import nl.thefourmusketeers.helpers.PopulationHelper;
+import nl.thefourmusketeers.helpers.Settings;
 import nl.thefourmusketeers.helpers.StatisticsHelper;
+import nl.thefourmusketeers.helpers.StatisticsWriterHelper;
+import nl.thefourmusketeers.helpers.ThrottleHelper;
+import nl.thefourmusketeers.helpers.WhitelistHelper;
+import nl.thefourmusketeers.listeners.PermissionCheckListener;
+import nl.thefourmusketeers.listeners.PermissionPlayerDisconnectListener;
+import nl.thefourmusketeers.listeners.PermissionPostLoginListener;
+import nl.thefourmusketeers.listeners.PermissionServerSwitchListener;
+import nl.thefourmusketeers.listeners.PopulationServerConnectedListener;
+import nl.thefourmusketeers.listeners.PopulationServerDisconnectListener;
 import nl.thefourmusketeers.listeners.StatisticsServerConnectedListener;
 import nl.thefourmusketeers.listeners.StatisticsServerDisconnectListener;
+import nl.thefourmusketeers.listeners.WhitelistLoginListener;
+import nl.thefourmusketeers.listeners.WhitelistPlayerDisconnectListener;
+import nl.thefourmusketeers.listeners.WhitelistPostLoginListener;
+import nl.thefourmusketeers.listeners.WhitelistPreLoginListener;
 import nl.thefourmusketeers.listeners.WhitelistServerConnectListener;
+import nl.thefourmusketeers.tasks.BackupTask;
+import nl.thefourmusketeers.tasks.CheckpointTask;
+import nl.thefourmusketeers.tasks.CompactionTask;
+import nl.thefourmusketeers.tasks.ConfigWatchTask;
+import nl.thefourmusketeers.tasks.MetricsExportTask;
+import nl.thefourmusketeers.tasks.PurgeTask;
+import nl.thefourmusketeers.tasks.RollupTask;
 import nl.thefourmusketeers.tasks.StatisticsTask;
+import nl.thefourmusketeers.tasks.WhitelistNotifyTask;
 
 /**
  * Plugin class for The Four Musketeers.
@@ -27,6 +56,11 @@ public class MusketeersPlugin extends Plugin {
      */
     private ConfigHelper configHelper;
 
+    /**
+     * Metrics helper.
+     */
+    private MetricsHelper metricsHelper;
+
     /**
      * Database helper.
      */
@@ -37,6 +71,51 @@ public class MusketeersPlugin extends Plugin {
      */
     private MessageHelper messageHelper;
 
+    /**
+     * Permission helper.
+     */
+    private PermissionHelper permissionHelper;
+
+    /**
+     * Whitelist helper.
+     */
+    private WhitelistHelper whitelistHelper;
+
+    /**
+     * Throttle helper.
+     */
+    private ThrottleHelper throttleHelper;
+
+    /**
+     * Population helper.
+     */
+    private PopulationHelper populationHelper;
+
+    /**
+     * Statistics writer.
+     */
+    private StatisticsWriterHelper statisticsWriter;
+
+    /**
+     * Playtime helper.
+     */
+    private PlaytimeHelper playtimeHelper;
+
+    /**
+     * Statistics task.
+     */
+    private StatisticsTask statisticsTask;
+
+    /**
+     * Whitelist notify task, if notifications are collected.
+     */
+    private WhitelistNotifyTask whitelistNotifyTask;
+
+    /**
+     * Config watch task, if the configuration file is watched.
+     */
+    private ConfigWatchTask configWatchTask;
+
     /**
      * Enables the plugin by loading the resources and registering the various
      * functionalities.
@@ -52,6 +131,9 @@ public class MusketeersPlugin extends Plugin {
             return;
         }
 
+        // Collect metrics from the start
+        this.metricsHelper = new MetricsHelper();
+
         // Connect to database
         try {
             this.databaseHelper = new DatabaseHelper(this);
@@ -63,14 +145,84 @@ public class MusketeersPlugin extends Plugin {
 
         // Prepare the message helper
         this.messageHelper = new MessageHelper(this);
+        this.permissionHelper = new PermissionHelper(this);
+
+        // Load the whitelist
+        try {
+            this.whitelistHelper = new WhitelistHelper(this);
+        } catch (final Exception ex) {
+            this.getLogger().severe("Failed to load whitelist!");
+            ex.printStackTrace();
+            return;
+        }
+
+        this.throttleHelper = new ThrottleHelper(this);
 
         // Setup plugin functionality
         final PluginManager p = this.getProxy().getPluginManager();
         final TaskScheduler s = this.getProxy().getScheduler();
 
+        // Permission tracking for messages
+        p.registerListener(this, new PermissionPostLoginListener(this));
+        p.registerListener(this, new PermissionServerSwitchListener(this));
+        p.registerListener(this, new PermissionPlayerDisconnectListener(this));
+        p.registerListener(this, new PermissionCheckListener(this));
+
+        // Reload the configuration when it changes
+        if (this.getConfig().getBoolean("watch-config", false)) {
+            try {
+                this.configWatchTask = new ConfigWatchTask(this);
+                s.runAsync(this, this.configWatchTask);
+            } catch (final IOException ex) {
+                this.getLogger().severe("Failed to watch configuration file!");
+                ex.printStackTrace();
+            }
+        }
+
+        // Metrics
+        p.registerCommand(this, new MusketeersCommand(this));
+        final int metricsExportInterval = this.getConfig().getInt("metrics.export-interval", 0);
+        if (metricsExportInterval > 0) {
+            s.schedule(this, new MetricsExportTask(this), metricsExportInterval, metricsExportInterval, MetricsExportTask.TASK_INTERVAL_TIME_UNIT);
+        }
+
+        // Database maintenance
+        final int checkpointInterval = this.getConfig().getInt("database-settings.checkpoint-interval", 60);
+        if (this.databaseHelper.isWal() && checkpointInterval > 0) {
+            s.schedule(this, new CheckpointTask(this), checkpointInterval, checkpointInterval, CheckpointTask.TASK_INTERVAL_TIME_UNIT);
+        }
+        final int compactionInterval = this.getConfig().getInt("database-settings.compaction.interval", 10);
+        if (this.databaseHelper.isIncrementalVacuum() && compactionInterval > 0) {
+            s.schedule(this, new CompactionTask(this), compactionInterval, compactionInterval, CompactionTask.TASK_INTERVAL_TIME_UNIT);
+        }
+        final int backupInterval = this.getConfig().getInt("database-settings.backup.interval", 0);
+        if (backupInterval > 0) {
+            s.schedule(this, new BackupTask(this), backupInterval, backupInterval, BackupTask.TASK_INTERVAL_TIME_UNIT);
+        }
+
         // Whitelist functionality
+        p.registerListener(this, new WhitelistPreLoginListener(this));
+        p.registerListener(this, new WhitelistLoginListener(this));
+        p.registerListener(this, new WhitelistPostLoginListener(this));
+        p.registerListener(this, new WhitelistPlayerDisconnectListener(this));
         p.registerListener(this, new WhitelistServerConnectListener(this));
         p.registerCommand(this, new WhitelistCommand(this));
+        final int notifyWindow = this.getConfig().getInt("whitelist.notify-window", 10);
+        if (notifyWindow > 0) {
+            this.whitelistNotifyTask = new WhitelistNotifyTask(this);
+            s.schedule(this, this.whitelistNotifyTask, notifyWindow, notifyWindow, WhitelistNotifyTask.TASK_INTERVAL_TIME_UNIT);
+        }
+
+        // Removed players keep their history forever, or are purged in the
+        // background
+        if (!this.getConfig().getString("whitelist.purge.history", "archive").equalsIgnoreCase("keep")) {
+            s.schedule(this, new PurgeTask(this), PurgeTask.TASK_INTERVAL, PurgeTask.TASK_INTERVAL, PurgeTask.TASK_INTERVAL_TIME_UNIT);
+        }
+
+        // Population functionality
+        this.populationHelper = new PopulationHelper(this);
+        p.registerListener(this, new PopulationServerConnectedListener(this));
+        p.registerListener(this, new PopulationServerDisconnectListener(this));
 
         // Statistics functionality is registered only if the required startup
         // procedures are completed without an error
@@ -79,10 +231,19 @@ public class MusketeersPlugin extends Plugin {
             StatisticsHelper.cleanupStatistics(this);
             StatisticsHelper.addServers(this);
 
+            // Start writing statistics
+            this.statisticsWriter = new StatisticsWriterHelper(this);
+
             // Register functionality
             p.registerListener(this, new StatisticsServerConnectedListener(this));
             p.registerListener(this, new StatisticsServerDisconnectListener(this));
-            s.schedule(this, new StatisticsTask(this), 0, StatisticsTask.TASK_INTERVAL, StatisticsTask.TASK_INTERVAL_TIME_UNIT);
+            this.statisticsTask = new StatisticsTask(this);
+            s.schedule(this, this.statisticsTask, 0, this.statisticsTask.getInterval(), StatisticsTask.TASK_INTERVAL_TIME_UNIT);
+            s.schedule(this, new RollupTask(this), RollupTask.TASK_INTERVAL, RollupTask.TASK_INTERVAL, RollupTask.TASK_INTERVAL_TIME_UNIT);
+
+            // Playtime functionality
+            this.playtimeHelper = new PlaytimeHelper(this);
+            p.registerCommand(this, new PlaytimeCommand(this));
         } catch (final Exception ex) {
             this.getLogger().severe("Failed to enable statistics!");
             ex.printStackTrace();
@@ -96,6 +257,9 @@ public class MusketeersPlugin extends Plugin {
     @Override
     public void onDisable() {
         // Scheduled tasks
+        if (this.configWatchTask != null) {
+            this.configWatchTask.close();
+        }
         this.getProxy().getScheduler().cancel(this);
 
         // Plugin functionality
@@ -103,6 +267,14 @@ public class MusketeersPlugin extends Plugin {
         p.unregisterCommands(this);
         p.unregisterListeners(this);
 
+        // Write the remaining statistics
+        if (this.statisticsTask != null) {
+            this.statisticsTask.flush();
+        }
+        if (this.statisticsWriter != null) {
+            this.statisticsWriter.close();
+        }
+
         // Database
         this.databaseHelper.close();
     }
@@ -114,6 +286,26 @@ public class MusketeersPlugin extends Plugin {
         return this.configHelper.getConfig();
     }
 
+    /**
+     * @return The current settings snapshot of the plugin.
+     */
+    public Settings getSettings() {
+        return this.configHelper.getSettings();
+    }
+
+    /**
+     * Reloads the configuration of the plugin from the configuration file.
+     *
+     * @throws IOException
+     *             When there's a problem accessing the configuration file.
+     */
+    public void reloadConfig() throws IOException {
+        this.configHelper.reload();
+        if (this.messageHelper != null) {
+            this.messageHelper.invalidate();
+        }
+    }
+
     /**
      * @return The default configuration of the plugin.
      */
@@ -121,6 +313,19 @@ public class MusketeersPlugin extends Plugin {
         return this.configHelper.getDefaultConfig();
     }
 
+    /**
+     * Changes a value of the configuration of the plugin, which is saved in
+     * the background.
+     *
+     * @param path
+     *            The path of the value.
+     * @param value
+     *            The new value.
+     */
+    public void setConfig(final String path, final Object value) {
+        this.configHelper.set(path, value);
+    }
+
     /**
      * Saves any changes to the configuration of the plugin.
      */
@@ -128,11 +333,18 @@ public class MusketeersPlugin extends Plugin {
         this.configHelper.saveConfig();
     }
 
+    /**
+     * @return The metrics of the plugin.
+     */
+    public MetricsHelper getMetrics() {
+        return this.metricsHelper;
+    }
+
     /**
      * @return The database used by the plugin.
      */
-    public Connection getDatabase() {
-        return this.databaseHelper.getDatabase();
+    public DatabaseHelper getDatabase() {
+        return this.databaseHelper;
     }
 
     /**
@@ -141,4 +353,63 @@ public class MusketeersPlugin extends Plugin {
     public MessageHelper getMessageHelper() {
         return this.messageHelper;
     }
+
+    /**
+     * @return The permission helper of the plugin.
+     */
+    public PermissionHelper getPermissionHelper() {
+        return this.permissionHelper;
+    }
+
+    /**
+     * @return The throttle of non-whitelisted join attempts.
+     */
+    public ThrottleHelper getThrottleHelper() {
+        return this.throttleHelper;
+    }
+
+    /**
+     * @return The population helper used by the plugin.
+     */
+    public PopulationHelper getPopulationHelper() {
+        return this.populationHelper;
+    }
+
+    /**
+     * Gets the live population of the network, for use by other plugins.
+     *
+     * @return The population service of the plugin.
+     */
+    public PopulationService getPopulation() {
+        return this.populationHelper;
+    }
+
+    /**
+     * @return The statistics writer used by the plugin.
+     */
+    public StatisticsWriterHelper getStatisticsWriter() {
+        return this.statisticsWriter;
+    }
+
+    /**
+     * @return The playtime helper used by the plugin.
+     */
+    public PlaytimeHelper getPlaytimeHelper() {
+        return this.playtimeHelper;
+    }
+
+    /**
+     * @return The task collecting whitelist notifications, or null if admins
+     *         are notified of every attempt immediately.
+     */
+    public WhitelistNotifyTask getWhitelistNotifyTask() {
+        return this.whitelistNotifyTask;
+    }
+
+    /**
+     * @return The whitelist of the plugin.
+     */
+    public WhitelistHelper getWhitelistHelper() {
+        return this.whitelistHelper;
+    }
 }
@@ -0,0 +1,16 @@
+package nl.thefourmusketeers.api;
+
+/**
+ * Service providing the live population of the network to other plugins.
+ *
+ * @author Daniël van de Giessen
+ */
+public interface PopulationService {
+    /**
+     * Gets the latest population snapshot. This is a constant time operation,
+     * so it can be called as often as needed.
+     *
+     * @return The latest snapshot.
+     */
+    PopulationSnapshot getSnapshot();
+}
@@ -0,0 +1,81 @@
+package nl.thefourmusketeers.api;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the number of players on the network and on every
+ * server. A new snapshot is published whenever a player connects to or
+ * disconnects from a server, so reading one never iterates any players.
+ *
+ * @author Daniël van de Giessen
+ */
+public final class PopulationSnapshot {
+    /**
+     * The time the snapshot was taken, in milliseconds since the epoch.
+     */
+    private final long                 time;
+
+    /**
+     * The number of players on the network.
+     */
+    private final int                  total;
+
+    /**
+     * The number of players on every server with any players, indexed by
+     * server name.
+     */
+    private final Map<String, Integer> servers;
+
+    /**
+     * Constructs a new population snapshot. The map is not copied, so it
+     * should not be modified afterwards.
+     *
+     * @param time
+     *            The time the snapshot was taken, in milliseconds since the
+     *            epoch.
+     * @param total
+     *            The number of players on the network.
+     * @param servers
+     *            The number of players on every server, indexed by server
+     *            name.
+     */
+    public PopulationSnapshot(final long time, final int total, final Map<String, Integer> servers) {
+        this.time = time;
+        this.total = total;
+        this.servers = Collections.unmodifiableMap(servers);
+    }
+
+    /**
+     * @return The time the snapshot was taken, in milliseconds since the
+     *         epoch.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * @return The number of players on the network.
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @param server
+     *            The name of the server.
+     * @return The number of players on the server.
+     */
+    public int getPlayerCount(final String server) {
+        final Integer count = this.servers.get(server);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return The number of players on every server with any players, indexed
+     *         by server name.
+     */
+    public Map<String, Integer> getServers() {
+        return this.servers;
+    }
+}
@@ -0,0 +1,249 @@
+package nl.thefourmusketeers.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.chat.TextComponent;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.plugin.Command;
+import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.helpers.ConfigHelper;
+import nl.thefourmusketeers.helpers.StatisticsExportHelper;
+import nl.thefourmusketeers.helpers.StatisticsHelper;
+
+/**
+ * Musketeers command implementation, providing the administrative
+ * functionality of the plugin.
+ *
+ * @author Daniël van de Giessen
+ */
+public class MusketeersCommand extends Command {
+    /**
+     * The name of the command.
+     */
+    public static final String     NAME      = "musketeers";
+
+    /**
+     * The number of seconds in a day.
+     */
+    private static final long      DAY       = 24 * 60 * 60;
+
+    /**
+     * The number of seconds in an hour.
+     */
+    private static final long      HOUR      = 60 * 60;
+
+    /**
+     * The plugin instance
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Whether an export is running.
+     */
+    private final AtomicBoolean    exporting = new AtomicBoolean();
+
+    /**
+     * Constructs a new musketeers command.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public MusketeersCommand(final MusketeersPlugin plugin) {
+        super(NAME);
+        this.plugin = plugin;
+    }
+
+    /**
+     * Execute the musketeers command with the specified sender and arguments.
+     *
+     * @param sender
+     *            The executor of this command.
+     * @param args
+     *            Arguments used to invoke this command.
+     */
+    @Override
+    public void execute(final CommandSender sender, final String[] args) {
+        // Usage
+        if (args.length == 0) {
+            this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-usage");
+            return;
+        }
+
+        // First argument specifies command
+        switch(args[0].toLowerCase()) {
+            case "stats":
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "stats")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+
+                // Show the metrics
+                this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-stats");
+                for (final String line : this.plugin.getMetrics().summarize()) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, new TextComponent(line));
+                }
+                break;
+
+            case "export":
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "export")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+                if (args.length < 2 || args.length > 3) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-usage");
+                    return;
+                }
+
+                // Parse the range, which starts at the end of the last export
+                // or at a date, and ends now or after an inclusive date
+                final boolean sinceLast = args[1].equalsIgnoreCase("last");
+                final Long from = sinceLast ? null : parseDate(args[1]);
+                final Long to = args.length < 3 || args[2].equalsIgnoreCase("now") ? null : parseDate(args[2]);
+                if ((!sinceLast && from == null) || (args.length == 3 && !args[2].equalsIgnoreCase("now") && to == null)) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-usage");
+                    return;
+                }
+                final long now = System.currentTimeMillis() / 1000;
+                final long end = to != null ? Math.min(now, to + DAY) : now;
+
+                // Only a single export at a time
+                if (!this.exporting.compareAndSet(false, true)) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-export-running");
+                    return;
+                }
+
+                // Export the statistics, off the command thread
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    try {
+                        final File folder = ConfigHelper.resolve(this.plugin, this.plugin.getConfig().getString("statistics.export.folder", "exports"));
+                        if (folder == null || (from != null && from >= end)) {
+                            this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-usage");
+                            return;
+                        }
+
+                        // Only export the rows which will no longer change,
+                        // with a range of its own for each of the files
+                        final long serverStart = from != null ? from : StatisticsExportHelper.getWatermark(this.plugin, StatisticsExportHelper.SERVER_STATISTICS);
+                        final long serverEnd = StatisticsExportHelper.getServerStatisticsEnd(this.plugin, end);
+                        final long playerStart = from != null ? from : StatisticsExportHelper.getWatermark(this.plugin, StatisticsExportHelper.PLAYER_STATISTICS);
+                        final long playerEnd = StatisticsExportHelper.getPlayerStatisticsEnd(this.plugin, end);
+                        if (serverStart >= serverEnd && playerStart >= playerEnd) {
+                            this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-export-nothing", Instant.ofEpochSecond(Math.min(serverStart, playerStart)).toString());
+                            return;
+                        }
+                        this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-export-started", Instant.ofEpochSecond(Math.min(serverStart, playerStart)).toString(), Instant.ofEpochSecond(Math.max(serverEnd, playerEnd)).toString());
+                        final long started = System.currentTimeMillis();
+                        final long serverRows = serverStart < serverEnd ? StatisticsExportHelper.exportServerStatistics(this.plugin, folder, serverStart, serverEnd) : 0;
+                        final long playerRows = playerStart < playerEnd ? StatisticsExportHelper.exportPlayerStatistics(this.plugin, folder, playerStart, playerEnd) : 0;
+                        this.plugin.getLogger().info("Exported " + serverRows + " server statistics and " + playerRows + " player statistics in " + (System.currentTimeMillis() - started) + " ms");
+                        this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-exported", String.valueOf(serverRows), String.valueOf(playerRows), folder.getName());
+                    } catch (final IOException | SQLException ex) {
+                        this.plugin.getLogger().severe("Failed to export statistics");
+                        ex.printStackTrace();
+                        this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-export-failed");
+                    } finally {
+                        this.exporting.set(false);
+                    }
+                });
+                break;
+
+            case "population":
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "population")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+                final ServerInfo server = args.length >= 2 && args.length <= 3 ? this.plugin.getProxy().getServerInfo(args[1]) : null;
+                final String period = args.length == 3 ? args[2].toLowerCase(Locale.ROOT) : "24h";
+                final long duration = parseDuration(period);
+                if (server == null || duration <= 0) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-usage");
+                    return;
+                }
+
+                // Summarize the samples of the period, off the command thread
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    try {
+                        final long until = System.currentTimeMillis() / 1000;
+                        final List<StatisticsHelper.PopulationSample> samples = StatisticsHelper.getServerPopulation(this.plugin, server.getName(), until - duration, until);
+                        if (samples.isEmpty()) {
+                            this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-population-empty", server.getName(), period);
+                            return;
+                        }
+                        int min = Integer.MAX_VALUE;
+                        int max = 0;
+                        double sum = 0;
+                        for (final StatisticsHelper.PopulationSample sample : samples) {
+                            min = Math.min(min, sample.minPlayerCount);
+                            max = Math.max(max, sample.maxPlayerCount);
+                            sum += sample.avgPlayerCount;
+                        }
+                        this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-population", server.getName(), period,
+                            String.valueOf(min), String.valueOf(max), String.format(Locale.ROOT, "%.1f", sum / samples.size()));
+                    } catch (final SQLException ex) {
+                        this.plugin.getLogger().severe("Failed to read server population");
+                        ex.printStackTrace();
+                    }
+                });
+                break;
+
+            default:
+                // Invalid command, show the usage
+                this.plugin.getMessageHelper().messagePlayer(sender, "musketeers-usage");
+                break;
+        }
+    }
+
+    /**
+     * @param duration
+     *            A number of hours or days, such as 6h or 30d.
+     * @return The duration in seconds, or 0 if it isn't a valid duration.
+     */
+    private static long parseDuration(final String duration) {
+        if (duration.length() < 2) {
+            return 0;
+        }
+        final long unit;
+        switch (duration.charAt(duration.length() - 1)) {
+            case 'h':
+                unit = HOUR;
+                break;
+            case 'd':
+                unit = DAY;
+                break;
+            default:
+                return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(duration.substring(0, duration.length() - 1))) * unit;
+        } catch (final NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param date
+     *            A date in the yyyy-mm-dd format.
+     * @return The start of the date in UTC, in seconds since the epoch, or
+     *         null if it isn't a valid date.
+     */
+    private static Long parseDate(final String date) {
+        try {
+            return LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        } catch (final DateTimeParseException ex) {
+            return null;
+        }
+    }
+}
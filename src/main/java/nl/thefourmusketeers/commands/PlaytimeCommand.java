@@ -0,0 +1,192 @@
+package nl.thefourmusketeers.commands;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.Command;
+import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.helpers.ConfigHelper;
+
+/**
+ * Playtime command implementation, showing the playtime of a player or the
+ * players with the most playtime.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PlaytimeCommand extends Command {
+    /**
+     * The name of the command.
+     */
+    public static final String     NAME           = "playtime";
+
+    /**
+     * The period used when none is given.
+     */
+    public static final String     DEFAULT_PERIOD = "all";
+
+    /**
+     * The plugin instance
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new playtime command.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PlaytimeCommand(final MusketeersPlugin plugin) {
+        super(NAME);
+        this.plugin = plugin;
+    }
+
+    /**
+     * Execute the playtime command with the specified sender and arguments.
+     *
+     * @param sender
+     *            The executor of this command.
+     * @param args
+     *            Arguments used to invoke this command.
+     */
+    @Override
+    public void execute(final CommandSender sender, final String[] args) {
+        // The period is always the last argument, and is optional
+        String period = DEFAULT_PERIOD;
+        int argc = args.length;
+        if (argc > 0 && getDays(args[argc - 1]) >= 0) {
+            period = args[argc - 1].toLowerCase();
+            argc--;
+        }
+        final String shownPeriod = period;
+        final int days = getDays(period);
+
+        // Leaderboard
+        if (argc > 0 && args[0].equalsIgnoreCase("top")) {
+            // Check the permissions
+            if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "playtime.top")) {
+                this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                return;
+            }
+            if (argc > 2 || (argc == 2 && this.plugin.getProxy().getServerInfo(args[1]) == null)) {
+                this.plugin.getMessageHelper().messagePlayer(sender, "playtime-usage");
+                return;
+            }
+            final String server = argc == 2 ? this.plugin.getProxy().getServerInfo(args[1]).getName() : null;
+
+            // Show the leaderboard, off the command thread
+            this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                try {
+                    final Map<String, Long> top = this.plugin.getPlaytimeHelper().getTop(server, days);
+                    final StringBuilder sb = new StringBuilder();
+                    int rank = 0;
+                    for (final Map.Entry<String, Long> entry : top.entrySet()) {
+                        if (rank > 0) {
+                            sb.append(", ");
+                        }
+                        sb.append(++rank).append(". ").append(entry.getKey()).append(' ').append(formatDuration(entry.getValue()));
+                    }
+                    this.plugin.getMessageHelper().messagePlayer(sender, "playtime-top", server != null ? server : "all servers", shownPeriod, sb.toString());
+                } catch (final SQLException ex) {
+                    this.plugin.getLogger().severe("Failed to read playtime leaderboard");
+                    ex.printStackTrace();
+                }
+            });
+            return;
+        }
+        if (argc > 1) {
+            this.plugin.getMessageHelper().messagePlayer(sender, "playtime-usage");
+            return;
+        }
+
+        // Find the player, which is the sender if none is given
+        final String name;
+        final UUID uuid;
+        if (argc == 0) {
+            if (!(sender instanceof ProxiedPlayer)) {
+                this.plugin.getMessageHelper().messagePlayer(sender, "playtime-usage");
+                return;
+            }
+            if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "playtime")) {
+                this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                return;
+            }
+            name = sender.getName();
+            uuid = ((ProxiedPlayer) sender).getUniqueId();
+        } else {
+            if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "playtime.others")) {
+                this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                return;
+            }
+            final ProxiedPlayer player = this.plugin.getProxy().getPlayer(args[0]);
+            name = player != null ? player.getName() : args[0];
+            uuid = player != null ? player.getUniqueId() : this.plugin.getWhitelistHelper().getUniqueId(args[0]);
+            if (uuid == null) {
+                this.plugin.getMessageHelper().messagePlayer(sender, "playtime-unknown-player", args[0]);
+                return;
+            }
+        }
+
+        // Show the playtime, off the command thread
+        this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+            try {
+                final Map<String, Long> playtime = this.plugin.getPlaytimeHelper().getPlaytime(uuid, days);
+                long total = 0;
+                final StringBuilder sb = new StringBuilder();
+                for (final Map.Entry<String, Long> entry : playtime.entrySet()) {
+                    total += entry.getValue();
+                    sb.append(sb.length() == 0 ? " (" : ", ").append(entry.getKey()).append(' ').append(formatDuration(entry.getValue()));
+                }
+                if (sb.length() > 0) {
+                    sb.append(')');
+                }
+                this.plugin.getMessageHelper().messagePlayer(sender, "playtime", name, shownPeriod, formatDuration(total) + sb);
+            } catch (final SQLException ex) {
+                this.plugin.getLogger().severe("Failed to read playtime");
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * @param period
+     *            The name of a period.
+     * @return The number of days in the period, 0 for all days, or -1 if it
+     *         isn't a period.
+     */
+    private static int getDays(final String period) {
+        switch (period.toLowerCase()) {
+            case "today":
+                return 1;
+            case "week":
+                return 7;
+            case "month":
+                return 30;
+            case "all":
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @param seconds
+     *            A duration in seconds.
+     * @return The duration in days, hours and minutes.
+     */
+    private static String formatDuration(final long seconds) {
+        final long days = seconds / 86400;
+        final long hours = seconds / 3600 % 24;
+        final long minutes = seconds / 60 % 60;
+        final StringBuilder sb = new StringBuilder();
+        if (days > 0) {
+            sb.append(days).append("d ");
+        }
+        if (days > 0 || hours > 0) {
+            sb.append(hours).append("h ");
+        }
+        return sb.append(minutes).append('m').toString();
+    }
+}
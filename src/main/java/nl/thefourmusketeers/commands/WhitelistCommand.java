@@ -1,15 +1,17 @@
 package nl.thefourmusketeers.commands;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.plugin.Command;
 import nl.thefourmusketeers.MusketeersPlugin;
 import nl.thefourmusketeers.helpers.ConfigHelper;
+import nl.thefourmusketeers.helpers.WhitelistFileHelper;
 
 /**
  * Whitelist command implementation.
@@ -20,7 +22,12 @@ public class WhitelistCommand extends Command {
     /**
      * The name of the command.
      */
-    public static final String     NAME = "whitelist";
+    public static final String     NAME      = "whitelist";
+
+    /**
+     * The number of players shown per page.
+     */
+    public static final int        PAGE_SIZE = 40;
 
     /**
      * The plugin instance
@@ -58,8 +65,55 @@ public class WhitelistCommand extends Command {
         switch(args[0].toLowerCase()) {
             case "on":
             case "off":
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "whitelist.admin")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+
+                final boolean enabled = args[0].equalsIgnoreCase("on");
+                final boolean kick = enabled && args.length == 2 && args[1].equalsIgnoreCase("kick");
+                if (args.length > (kick ? 2 : 1)) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                    return;
+                }
+
+                // Toggle the whitelist immediately, the file is saved later
+                this.plugin.setConfig("whitelist.enabled", enabled);
+                this.plugin.getLogger().info("Whitelist " + (enabled ? "enabled" : "disabled") + " by " + sender.getName());
+
+                // If asked, disconnect the online players which aren't
+                // whitelisted, otherwise they are only checked when they
+                // switch servers
+                if (kick) {
+                    for (final ProxiedPlayer player : this.plugin.getProxy().getPlayers()) {
+                        if (this.plugin.getWhitelistHelper().isWhitelisted(player.getUniqueId(), player.getName())) {
+                            this.plugin.getWhitelistHelper().approve(player.getUniqueId());
+                        } else {
+                            player.disconnect(this.plugin.getMessageHelper().buildMessage("whitelist"));
+                        }
+                    }
+                }
+                this.plugin.getMessageHelper().messagePlayer(sender, enabled ? "whitelist-enabled" : "whitelist-disabled");
+                break;
+
             case "reload":
-                this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-unsupported");
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "whitelist.admin")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+
+                // Reload the configuration and resynchronize the whitelist
+                // with the database
+                try {
+                    this.plugin.reloadConfig();
+                    this.plugin.getWhitelistHelper().reload();
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-reloaded", String.valueOf(this.plugin.getWhitelistHelper().size()));
+                } catch (final IOException | SQLException ex) {
+                    this.plugin.getLogger().severe("Failed to reload whitelist");
+                    ex.printStackTrace();
+                }
                 break;
 
             case "list":
@@ -69,22 +123,41 @@ public class WhitelistCommand extends Command {
                     return;
                 }
 
-                // Show the list
-                try (
-                    final PreparedStatement playerExists = this.plugin.getDatabase().prepareStatement(
-                        "SELECT name FROM players"
-                    )
-                ) {
-                    final ResultSet results = playerExists.executeQuery();
-                    final List<String> list = new ArrayList<String>();
-                    while(results.next()) {
-                        list.add(results.getString("name"));
-                    }
-                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-list", list);
-                } catch (final SQLException ex) {
-                    this.plugin.getLogger().severe("Failed to list whitelist");
-                    ex.printStackTrace();
+                // Parse the page
+                final int page;
+                try {
+                    page = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+                } catch (final NumberFormatException ex) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                    return;
                 }
+
+                // Show the page, off the command thread
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    final int pages = Math.max(1, (this.plugin.getWhitelistHelper().size() + PAGE_SIZE - 1) / PAGE_SIZE);
+                    final int shownPage = Math.max(1, Math.min(page, pages));
+                    final List<String> names = this.plugin.getWhitelistHelper().list((shownPage - 1) * PAGE_SIZE, PAGE_SIZE);
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-list", String.valueOf(shownPage), String.valueOf(pages), String.join(", ", names));
+                });
+                break;
+
+            case "search":
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "whitelist.list")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+                if (args.length < 2) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                    return;
+                }
+
+                // Show the first matches, off the command thread
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    final List<String> names = this.plugin.getWhitelistHelper().search(args[1], PAGE_SIZE + 1);
+                    final String more = names.size() > PAGE_SIZE ? ", ..." : "";
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-search", args[1], String.join(", ", names.subList(0, Math.min(names.size(), PAGE_SIZE))) + more);
+                });
                 break;
 
             case "add":
@@ -93,9 +166,40 @@ public class WhitelistCommand extends Command {
                     this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
                     return;
                 }
+                if (args.length < 2) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                    return;
+                }
 
-                // TODO add to whitelist
-                this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-unsupported");
+                // Find the UUID, which is only known for online players if
+                // it isn't given
+                final ProxiedPlayer player = this.plugin.getProxy().getPlayer(args[1]);
+                final UUID uuid;
+                if (args.length > 2) {
+                    try {
+                        uuid = UUID.fromString(args[2]);
+                    } catch (final IllegalArgumentException ex) {
+                        this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                        return;
+                    }
+                } else if (player != null) {
+                    uuid = player.getUniqueId();
+                } else {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-unknown-player", args[1]);
+                    return;
+                }
+                final String name = player != null && player.getUniqueId().equals(uuid) ? player.getName() : args[1];
+
+                // Add to the whitelist, off the command thread
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    try {
+                        this.plugin.getWhitelistHelper().add(uuid, name);
+                        this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-added", name);
+                    } catch (final SQLException ex) {
+                        this.plugin.getLogger().severe("Failed to add player to whitelist");
+                        ex.printStackTrace();
+                    }
+                });
                 break;
 
             case "remove":
@@ -104,9 +208,64 @@ public class WhitelistCommand extends Command {
                     this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
                     return;
                 }
+                if (args.length < 2) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                    return;
+                }
+
+                // Remove from the whitelist, off the command thread
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    final UUID removedUuid = this.plugin.getWhitelistHelper().getUniqueId(args[1]);
+                    if (removedUuid == null) {
+                        this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-not-found", args[1]);
+                        return;
+                    }
+                    try {
+                        this.plugin.getWhitelistHelper().remove(removedUuid);
+                        this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-removed", args[1]);
+                    } catch (final SQLException ex) {
+                        this.plugin.getLogger().severe("Failed to remove player from whitelist");
+                        ex.printStackTrace();
+                    }
+                });
+                break;
 
-                // TODO mark as removed in whitelist
-                this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-unsupported");
+            case "import":
+            case "export":
+                // Check the permissions
+                if(!sender.hasPermission(ConfigHelper.PERMISSION_PREFIX + "whitelist.admin")) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "access-denied");
+                    return;
+                }
+                if (args.length < 2) {
+                    this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-usage");
+                    return;
+                }
+
+                // Import or export the file, off the command thread
+                final boolean isImport = args[0].equalsIgnoreCase("import");
+                this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                    try {
+                        final File file = ConfigHelper.resolve(this.plugin, args[1]);
+                        if (file == null || (isImport && !file.isFile())) {
+                            this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-file-not-found", args[1]);
+                            return;
+                        }
+                        final long start = System.currentTimeMillis();
+                        if (isImport) {
+                            final int[] result = WhitelistFileHelper.importFile(this.plugin, file);
+                            this.plugin.getLogger().info("Imported " + result[0] + " players into the whitelist in " + (System.currentTimeMillis() - start) + " ms");
+                            this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-imported", String.valueOf(result[0]), String.valueOf(result[1]));
+                        } else {
+                            final int exported = WhitelistFileHelper.exportFile(this.plugin, file);
+                            this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-exported", String.valueOf(exported), file.getName());
+                        }
+                    } catch (final IOException | SQLException ex) {
+                        this.plugin.getLogger().severe("Failed to " + (isImport ? "import" : "export") + " whitelist");
+                        ex.printStackTrace();
+                        this.plugin.getMessageHelper().messagePlayer(sender, "whitelist-file-failed", args[1]);
+                    }
+                });
                 break;
 
             default:
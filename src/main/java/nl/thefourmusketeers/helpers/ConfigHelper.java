@@ -2,7 +2,9 @@ package nl.thefourmusketeers.helpers;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.md_5.bungee.config.Configuration;
 import net.md_5.bungee.config.ConfigurationProvider;
@@ -23,7 +25,7 @@ public class ConfigHelper {
     /**
      * The filename of the configuration file.
      */
-    private static final String    CONFIG_FILENAME   = "config.yml";
+    public static final String     CONFIG_FILENAME   = "config.yml";
 
     /**
      * The plugin instance.
@@ -33,13 +35,22 @@ public class ConfigHelper {
     /**
      * The configuration of the plugin.
      */
-    private final Configuration    config;
+    private volatile Configuration config;
+
+    /**
+     * The settings parsed from the configuration.
+     */
+    private volatile Settings      settings;
 
     /**
      * The default configuration of the plugin.
      */
     private final Configuration    defaultConfig;
 
+    /**
+     * Whether a save of the configuration file is pending.
+     */
+    private final AtomicBoolean    savePending       = new AtomicBoolean();
 
     /**
      * Constructs a new configuration helper.
@@ -65,12 +76,77 @@ public class ConfigHelper {
         }
 
         // Load config
-        this.config = ConfigurationProvider.getProvider(YamlConfiguration.class).load(configFile);
+        this.reload();
 
         // Load default config
         this.defaultConfig = ConfigurationProvider.getProvider(YamlConfiguration.class).load(this.plugin.getResourceAsStream(CONFIG_FILENAME));
     }
 
+    /**
+     * Resolves the name of a file or folder within the data folder of the
+     * plugin, so commands and settings can't touch any other files.
+     *
+     * @param plugin
+     *            The plugin instance.
+     * @param name
+     *            The name of the file or folder.
+     * @return The file, or null if the name points outside the data folder.
+     * @throws IOException
+     *             When the path could not be resolved.
+     */
+    public static File resolve(final MusketeersPlugin plugin, final String name) throws IOException {
+        final File folder = plugin.getDataFolder().getCanonicalFile();
+        final File file = new File(folder, name).getCanonicalFile();
+        return file.toPath().startsWith(folder.toPath()) && !file.equals(folder) ? file : null;
+    }
+
+    /**
+     * Reloads the configuration from the configuration file, publishing the
+     * new configuration and settings at once. Settings which are only read
+     * when the plugin is enabled still require a restart.
+     *
+     * @throws IOException
+     *             When there's a problem accessing the configuration file.
+     */
+    public synchronized void reload() throws IOException {
+        final Configuration config = ConfigurationProvider.getProvider(YamlConfiguration.class).load(new File(this.plugin.getDataFolder(), CONFIG_FILENAME));
+        final Settings settings = new Settings(config);
+        this.config = config;
+        this.settings = settings;
+    }
+
+    /**
+     * Changes a value of the configuration, publishing the new configuration
+     * and settings immediately and saving the configuration file in the
+     * background. The change is made to a copy of the configuration, as other
+     * threads may be reading the current one. Rapid changes are coalesced
+     * into a single save.
+     *
+     * @param path
+     *            The path of the value.
+     * @param value
+     *            The new value.
+     */
+    public void set(final String path, final Object value) {
+        synchronized (this) {
+            final ConfigurationProvider provider = ConfigurationProvider.getProvider(YamlConfiguration.class);
+            final StringWriter writer = new StringWriter();
+            provider.save(this.config, writer);
+            final Configuration config = provider.load(writer.toString());
+            config.set(path, value);
+            final Settings settings = new Settings(config);
+            this.config = config;
+            this.settings = settings;
+        }
+        if (this.savePending.compareAndSet(false, true)) {
+            this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+                // Changes made from here on schedule another save
+                this.savePending.set(false);
+                this.saveConfig();
+            });
+        }
+    }
+
     /**
      * @return The configuration instance.
      */
@@ -78,6 +154,13 @@ public class ConfigHelper {
         return this.config;
     }
 
+    /**
+     * @return The current settings snapshot.
+     */
+    public Settings getSettings() {
+        return this.settings;
+    }
+
     /**
      * @return The default configuration instance.
      */
@@ -88,7 +171,7 @@ public class ConfigHelper {
     /**
      * Saves any changes to the configuration.
      */
-    public void saveConfig() {
+    public synchronized void saveConfig() {
         try {
             ConfigurationProvider.getProvider(YamlConfiguration.class).save(this.config, new File(this.plugin.getDataFolder(), CONFIG_FILENAME));
         } catch (final IOException ex) {
@@ -0,0 +1,78 @@
+package nl.thefourmusketeers.helpers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A connection to the SQLite database which caches its prepared statements.
+ * A connection is used by a single thread at a time, so the statements are
+ * never shared between threads.
+ *
+ * @author Daniël van de Giessen
+ */
+public class DatabaseConnection implements AutoCloseable {
+    /**
+     * The underlying database connection.
+     */
+    private final Connection                     connection;
+
+    /**
+     * The prepared statements of this connection, indexed by their SQL.
+     */
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    /**
+     * Constructs a new database connection.
+     *
+     * @param connection
+     *            The underlying database connection.
+     */
+    public DatabaseConnection(final Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Gets the prepared statement for the given SQL, preparing it only the
+     * first time it is used on this connection. The statement stays owned by
+     * the connection and should not be closed by the caller.
+     *
+     * @param sql
+     *            The SQL of the statement.
+     * @return The prepared statement.
+     * @throws SQLException
+     *             When the statement could not be prepared.
+     */
+    public PreparedStatement prepare(final String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql);
+            this.statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * @return The underlying database connection.
+     */
+    public Connection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Closes the cached statements and the underlying database connection.
+     *
+     * @throws SQLException
+     *             When closing the connection failed.
+     */
+    @Override
+    public void close() throws SQLException {
+        for (final PreparedStatement statement : this.statements.values()) {
+            statement.close();
+        }
+        this.statements.clear();
+        this.connection.close();
+    }
+}
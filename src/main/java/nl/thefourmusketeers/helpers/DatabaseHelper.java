@@ -3,36 +3,151 @@ package nl.thefourmusketeers.helpers;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import net.md_5.bungee.config.Configuration;
 import nl.thefourmusketeers.MusketeersPlugin;
 
 /**
  * Helper providing functionality for using the SQLite database.
  *
+ * All writes are executed in order by a single writer thread with its own
+ * connection, while reads use a small pool of read-only connections. Bulk
+ * reads, such as exports, use a separate pool, so they never keep the
+ * latency-critical reads of logins waiting.
+ *
  * @author Daniël van de Giessen
  */
 public class DatabaseHelper implements AutoCloseable {
     /**
      * The default filename for the database file.
      */
-    private static final String    DATABASE_FILENAME     = "database.sqlite";
+    private static final String                     DATABASE_FILENAME     = "database.sqlite";
 
     /**
      * The default filename for the database file.
      */
-    private static final String    DATABASE_SQL_FILENAME = "database.sql";
+    private static final String                     DATABASE_SQL_FILENAME = "database.sql";
+
+    /**
+     * The SQLite open mode flag for read-only connections.
+     */
+    private static final String                     OPEN_MODE_READONLY    = "1";
+
+    /**
+     * The maximum time to wait for pending writes when closing, in seconds.
+     */
+    private static final long                       CLOSE_TIMEOUT         = 30;
+
+    /**
+     * The auto-vacuum modes, indexed by their value in the database.
+     */
+    private static final String[]                   AUTO_VACUUM_MODES     = { "NONE", "FULL", "INCREMENTAL" };
+
+    /**
+     * The suffix of the write-ahead log file of the database.
+     */
+    private static final String                     WAL_SUFFIX            = "-wal";
 
     /**
      * The plugin instance.
      */
-    private final MusketeersPlugin plugin;
+    private final MusketeersPlugin                  plugin;
+
+    /**
+     * The database file.
+     */
+    private final File                              databaseFile;
+
+    /**
+     * The JDBC URL of the database.
+     */
+    private final String                            url;
+
+    /**
+     * The PRAGMA statements applied to every connection.
+     */
+    private final String[]                          connectionPragmas;
+
+    /**
+     * The journal mode of the database.
+     */
+    private final String                            journalMode;
 
     /**
-     * The database connection used by the plugin.
+     * The auto-vacuum mode of the database.
      */
-    private final Connection       database;
+    private final String                            autoVacuum;
+
+    /**
+     * The connection used for all writes.
+     */
+    private final DatabaseConnection                writer;
+
+    /**
+     * The executor running all writes on a single thread.
+     */
+    private final ExecutorService                   writeExecutor;
+
+    /**
+     * The thread of the write executor.
+     */
+    private volatile Thread                         writeThread;
+
+    /**
+     * Whether the writer connection is in a transaction. Only used on the
+     * writer thread.
+     */
+    private boolean                                 inTransaction;
+
+    /**
+     * The read-only connections which are currently not in use.
+     */
+    private final BlockingQueue<DatabaseConnection> readers;
+
+    /**
+     * The number of read-only connections.
+     */
+    private final int                               readerCount;
+
+    /**
+     * The read-only connections for bulk reads which are currently not in
+     * use.
+     */
+    private final BlockingQueue<DatabaseConnection> bulkReaders;
+
+    /**
+     * The number of read-only connections for bulk reads.
+     */
+    private final int                               bulkReaderCount;
+
+    /**
+     * The latency of reads.
+     */
+    private final MetricsHelper.Histogram           readLatency;
+
+    /**
+     * The latency of bulk reads.
+     */
+    private final MetricsHelper.Histogram           bulkReadLatency;
+
+    /**
+     * The latency of writes which are waited for.
+     */
+    private final MetricsHelper.Histogram           writeLatency;
 
     /**
      * Constructs a new configuration helper.
@@ -44,6 +159,9 @@ public class DatabaseHelper implements AutoCloseable {
      */
     public DatabaseHelper(final MusketeersPlugin plugin) throws Exception {
         this.plugin = plugin;
+        this.readLatency = plugin.getMetrics().histogram("musketeers_database_seconds{type=\"read\"}");
+        this.bulkReadLatency = plugin.getMetrics().histogram("musketeers_database_seconds{type=\"bulk-read\"}");
+        this.writeLatency = plugin.getMetrics().histogram("musketeers_database_seconds{type=\"write\"}");
 
         // Data folder
         final File folder = plugin.getDataFolder();
@@ -54,21 +172,57 @@ public class DatabaseHelper implements AutoCloseable {
 
         // Check database file
         final String databasePath = plugin.getConfig().getString("database", null);
-        final File databaseFile;
         if (databasePath == null) {
-            databaseFile = new File(folder, DATABASE_FILENAME);
+            this.databaseFile = new File(folder, DATABASE_FILENAME);
         } else {
-            databaseFile = new File(databasePath);
+            this.databaseFile = new File(databasePath);
         }
-        final boolean databaseExists = databaseFile.exists();
-        plugin.getLogger().info("Database file is " + databaseFile.toPath() + ", which " + (databaseExists ? "exists" : "doesn't exist"));
+        final boolean databaseExists = this.databaseFile.exists();
+        plugin.getLogger().info("Database file is " + this.databaseFile.toPath() + ", which " + (databaseExists ? "exists" : "doesn't exist"));
+
+        // Storage settings
+        final Configuration settings = plugin.getConfig().getSection("database-settings");
+        this.connectionPragmas = new String[] {
+            "PRAGMA busy_timeout = " + Math.max(0, settings.getInt("busy-timeout", 5000)),
+            "PRAGMA synchronous = " + this.getSetting(settings, "synchronous", "NORMAL", "OFF", "NORMAL", "FULL", "EXTRA"),
+            "PRAGMA cache_size = " + settings.getLong("cache-size", -8000),
+            "PRAGMA mmap_size = " + Math.max(0, settings.getLong("mmap-size", 0)),
+            "PRAGMA temp_store = " + this.getSetting(settings, "temp-store", "MEMORY", "DEFAULT", "FILE", "MEMORY"),
+            "PRAGMA foreign_keys = ON"
+        };
 
         // Load database
         Class.forName("org.sqlite.JDBC");
-        this.database = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.toPath());
+        this.url = "jdbc:sqlite:" + this.databaseFile.toPath();
+        this.writer = this.openConnection(false);
 
-        // Set up SQLite settings
-        this.database.prepareStatement("PRAGMA foreign_keys = ON").execute();
+        // The auto-vacuum mode can only be changed before anything is written
+        // to a new database, even the journal mode, or by rebuilding the
+        // whole database
+        this.autoVacuum = this.getSetting(settings, "auto-vacuum", "NONE", "NONE", "FULL", "INCREMENTAL");
+        final String currentAutoVacuum;
+        try (final ResultSet result = this.writer.getConnection().prepareStatement("PRAGMA auto_vacuum").executeQuery()) {
+            currentAutoVacuum = AUTO_VACUUM_MODES[result.next() ? result.getInt(1) : 0];
+        }
+        if (!currentAutoVacuum.equals(this.autoVacuum)) {
+            this.writer.getConnection().prepareStatement("PRAGMA auto_vacuum = " + this.autoVacuum).execute();
+            if (databaseExists) {
+                plugin.getLogger().info("Converting database from " + currentAutoVacuum + " to " + this.autoVacuum + " auto-vacuum, this rebuilds the whole database...");
+                final long start = System.currentTimeMillis();
+                this.writer.getConnection().prepareStatement("VACUUM").execute();
+                plugin.getLogger().info("Converted database in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+
+        // The journal mode is stored in the database, so it is only set by the writer
+        final String journalMode = this.getSetting(settings, "journal-mode", "WAL", "DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL");
+        try (final ResultSet result = this.writer.getConnection().prepareStatement("PRAGMA journal_mode = " + journalMode).executeQuery()) {
+            this.journalMode = result.next() ? result.getString(1).toUpperCase(Locale.ROOT) : journalMode;
+        }
+        if (!this.journalMode.equals(journalMode)) {
+            plugin.getLogger().warning("Database journal mode is " + this.journalMode + " instead of " + journalMode);
+        }
+        this.writer.getConnection().prepareStatement("PRAGMA journal_size_limit = " + settings.getLong("journal-size-limit", 67108864)).execute();
 
         // If required, initiate the database using the create statements
         if (!databaseExists) {
@@ -76,30 +230,345 @@ public class DatabaseHelper implements AutoCloseable {
             final Scanner s = new Scanner(plugin.getResourceAsStream(DATABASE_SQL_FILENAME));
             s.useDelimiter(";\n+");
             while(s.hasNext()) {
-                this.database.prepareStatement(s.next()).execute();
+                this.writer.getConnection().prepareStatement(s.next()).execute();
             }
             s.close();
         }
+
+        // Bring the schema up to date
+        MigrationHelper.migrate(plugin, this.writer.getConnection());
+
+        // Writes are serialized on a single thread
+        this.writeExecutor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, plugin.getDescription().getName() + " database writer");
+            thread.setDaemon(true);
+            this.writeThread = thread;
+            return thread;
+        });
+
+        // Reads use a pool of read-only connections
+        this.readerCount = Math.max(1, plugin.getConfig().getInt("database-settings.read-connections", 2));
+        this.readers = new ArrayBlockingQueue<DatabaseConnection>(this.readerCount);
+        for (int i = 0; i < this.readerCount; i++) {
+            this.readers.add(this.openConnection(true));
+        }
+        this.bulkReaderCount = Math.max(1, plugin.getConfig().getInt("database-settings.bulk-read-connections", 1));
+        this.bulkReaders = new ArrayBlockingQueue<DatabaseConnection>(this.bulkReaderCount);
+        for (int i = 0; i < this.bulkReaderCount; i++) {
+            this.bulkReaders.add(this.openConnection(true));
+        }
+    }
+
+    /**
+     * Opens a new connection to the database.
+     *
+     * @param readOnly
+     *            Whether the connection should be read-only.
+     * @return The new connection.
+     * @throws SQLException
+     *             When connecting to the database fails.
+     */
+    private DatabaseConnection openConnection(final boolean readOnly) throws SQLException {
+        final Properties properties = new Properties();
+        if (readOnly) {
+            properties.setProperty("open_mode", OPEN_MODE_READONLY);
+        }
+        final Connection connection = DriverManager.getConnection(this.url, properties);
+
+        // Set up SQLite settings
+        for (final String pragma : this.connectionPragmas) {
+            connection.prepareStatement(pragma).execute();
+        }
+
+        return new DatabaseConnection(connection);
     }
 
     /**
-     * @return The database connection.
+     * Gets an SQLite setting from the configuration, falling back to the
+     * default when the configured value is not one of the allowed values.
      */
-    public Connection getDatabase() {
-        return this.database;
+    private String getSetting(final Configuration settings, final String path, final String def, final String... allowed) {
+        final String value = settings.getString(path, def).toUpperCase(Locale.ROOT);
+        if (!Arrays.asList(allowed).contains(value)) {
+            this.plugin.getLogger().warning("Invalid value " + value + " for database-settings." + path + ", using " + def);
+            return def;
+        }
+        return value;
     }
 
     /**
-     * Closes the database connection.
+     * @return Whether the database uses a write-ahead log.
+     */
+    public boolean isWal() {
+        return "WAL".equals(this.journalMode);
+    }
+
+    /**
+     * @return Whether free pages are only removed by incremental vacuums.
+     */
+    public boolean isIncrementalVacuum() {
+        return "INCREMENTAL".equals(this.autoVacuum);
+    }
+
+    /**
+     * @return The size of the write-ahead log, in bytes.
+     */
+    public long getWalSize() {
+        return new File(this.databaseFile.getPath() + WAL_SUFFIX).length();
+    }
+
+    /**
+     * Queues a passive checkpoint of the write-ahead log, which copies as
+     * much of the log into the database as possible without waiting for
+     * readers.
+     *
+     * @return A future completed with the number of frames in the log and the
+     *         number of frames checkpointed.
+     */
+    public CompletableFuture<int[]> checkpoint() {
+        final CompletableFuture<int[]> future = new CompletableFuture<int[]>();
+        this.writeExecutor.execute(() -> {
+            // A checkpoint can't run inside a transaction
+            try (final ResultSet result = this.writer.prepare("PRAGMA wal_checkpoint(PASSIVE)").executeQuery()) {
+                future.complete(result.next() ? new int[] { result.getInt(2), result.getInt(3) } : new int[] { 0, 0 });
+            } catch (final Throwable ex) {
+                this.plugin.getLogger().severe("Failed to checkpoint database!");
+                ex.printStackTrace();
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs a query on one of the read-only connections, waiting for a
+     * connection to become available if all are in use.
+     *
+     * @param query
+     *            The query to be run.
+     * @return The result of the query.
+     * @throws SQLException
+     *             When running the query failed.
+     */
+    public <T> T read(final Query<T> query) throws SQLException {
+        return this.read(this.readers, this.readLatency, query);
+    }
+
+    /**
+     * Runs a query which reads many rows, such as an export, on one of the
+     * read-only connections for bulk reads, waiting for a connection to
+     * become available if all are in use.
+     *
+     * @param query
+     *            The query to be run.
+     * @return The result of the query.
+     * @throws SQLException
+     *             When running the query failed.
+     */
+    public <T> T readBulk(final Query<T> query) throws SQLException {
+        return this.read(this.bulkReaders, this.bulkReadLatency, query);
+    }
+
+    /**
+     * Runs a query on a connection taken from a pool.
+     */
+    private <T> T read(final BlockingQueue<DatabaseConnection> pool, final MetricsHelper.Histogram latency, final Query<T> query) throws SQLException {
+        final DatabaseConnection reader;
+        try {
+            reader = pool.take();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", ex);
+        }
+        final long start = System.nanoTime();
+        try {
+            return query.run(reader);
+        } finally {
+            pool.add(reader);
+            latency.recordSince(start);
+        }
+    }
+
+    /**
+     * Copies the database to a file using the online backup of SQLite, on a
+     * read-only connection of its own, so neither the reads of the players
+     * nor the bulk reads wait for it. The connection keeps a single read
+     * transaction open during the backup, so it copies a consistent snapshot
+     * of the database while the writer keeps committing, instead of
+     * restarting whenever the database changes.
+     *
+     * The backup command of the driver copies the database in steps of a few
+     * pages, but runs all steps in a single call which can't be interrupted
+     * through JDBC. It should therefore only be called from a task, never
+     * from an event or a command.
+     *
+     * @param file
+     *            The file the database is copied to.
+     * @throws SQLException
+     *             When the backup failed, or when the path of the file can't
+     *             be quoted.
+     */
+    public void backup(final File file) throws SQLException {
+        // The driver only strips the quotes around the path, so quote it with
+        // a character it doesn't contain
+        final String path = file.getPath();
+        final char quote = path.indexOf('"') < 0 ? '"' : '\'';
+        if (path.indexOf(quote) >= 0) {
+            throw new SQLException("Cannot back up to a path containing both kinds of quotes: " + path);
+        }
+
+        try (final DatabaseConnection database = this.openConnection(true)) {
+            final Connection connection = database.getConnection();
+            connection.setAutoCommit(false);
+            try (final Statement statement = connection.createStatement()) {
+                // Start the read transaction
+                statement.executeQuery("SELECT COUNT(*) FROM sqlite_master").close();
+
+                statement.executeUpdate("backup to " + quote + path + quote);
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    /**
+     * Queues a query to be run in a transaction on the writer connection. A
+     * failure is logged and completes the returned future exceptionally.
+     *
+     * @param description
+     *            Description of the query, used when logging a failure.
+     * @param query
+     *            The query to be run.
+     * @return A future completed with the result of the query.
+     */
+    public <T> CompletableFuture<T> write(final String description, final Query<T> query) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        this.writeExecutor.execute(() -> {
+            try {
+                future.complete(this.runWrite(query));
+            } catch (final Throwable ex) {
+                this.plugin.getLogger().severe("Failed to " + description + "!");
+                ex.printStackTrace();
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs a query in a transaction on the writer connection and waits for it
+     * to complete. When called from within another write, the query is run as
+     * part of the transaction of that write.
+     *
+     * @param query
+     *            The query to be run.
+     * @return The result of the query.
+     * @throws SQLException
+     *             When running the query failed.
+     */
+    public <T> T writeAndWait(final Query<T> query) throws SQLException {
+        // Already on the writer thread, so run directly, in the transaction
+        // of the outer write if there is one
+        if (Thread.currentThread() == this.writeThread) {
+            if (this.inTransaction) {
+                return query.run(this.writer);
+            }
+            return this.runWrite(query);
+        }
+
+        try {
+            return this.writeExecutor.submit(() -> this.runWrite(query)).get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database write", ex);
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw new SQLException(ex.getCause());
+        }
+    }
+
+    /**
+     * Runs a query in a transaction on the writer connection. Should only be
+     * called from the writer thread.
+     */
+    private <T> T runWrite(final Query<T> query) throws SQLException {
+        final long start = System.nanoTime();
+        final Connection connection = this.writer.getConnection();
+        connection.setAutoCommit(false);
+        this.inTransaction = true;
+        try {
+            final T result = query.run(this.writer);
+            connection.commit();
+            return result;
+        } catch (final SQLException | RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            this.inTransaction = false;
+            connection.setAutoCommit(true);
+            this.writeLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Waits for all pending writes and closes the database connections.
      */
     @Override
     public void close() {
         this.plugin.getLogger().info("Closing database connection...");
+
+        // Finish pending writes
+        this.writeExecutor.shutdown();
+        try {
+            if (!this.writeExecutor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                this.plugin.getLogger().severe("Pending database writes did not finish in time!");
+                this.writeExecutor.shutdownNow();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Close the connections
         try {
-            this.database.close();
+            this.writer.close();
+            for (int i = 0; i < this.readerCount; i++) {
+                final DatabaseConnection reader = this.readers.poll(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            for (int i = 0; i < this.bulkReaderCount; i++) {
+                final DatabaseConnection reader = this.bulkReaders.poll(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+                if (reader != null) {
+                    reader.close();
+                }
+            }
         } catch (final SQLException ex) {
             this.plugin.getLogger().severe("Failed to close database handle!");
             ex.printStackTrace();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * A query run against a database connection.
+     *
+     * @param <T>
+     *            The type of the result of the query.
+     */
+    public interface Query<T> {
+        /**
+         * Runs the query.
+         *
+         * @param database
+         *            The connection to run the query on.
+         * @return The result of the query.
+         * @throws SQLException
+         *             When running the query failed.
+         */
+        T run(DatabaseConnection database) throws SQLException;
+    }
 }
@@ -1,6 +1,13 @@
 package nl.thefourmusketeers.helpers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
@@ -11,30 +18,55 @@ import nl.thefourmusketeers.MusketeersPlugin;
 /**
  * Helper providing functions used for sending messages to players.
  *
+ * Messages are compiled once into colorized templates, which are cached until
+ * the configuration is reloaded. A message may contain argument slots such as
+ * {0}, and any arguments without a slot are appended delimited by spaces.
+ * Every argument is styled with the configured argument prefix, after which
+ * the styling of the message resumes, so the messages don't need formatting
+ * codes around their slots.
+ *
  * @author Daniël van de Giessen
  */
 public class MessageHelper {
     /**
      * The prefix for every message key.
      */
-    private static final String    MESSAGE_KEY_PREFIX = "messages.";
+    private static final String                   MESSAGE_KEY_PREFIX = "messages.";
 
     /**
-     * The prefix string for every message.
+     * The pattern of an argument slot in a message.
      */
-    private final String           messagePrefix;
+    private static final Pattern                  SLOT_PATTERN       = Pattern.compile("\\{(\\d+)\\}");
 
     /**
      * The plugin instance.
      */
-    private final MusketeersPlugin plugin;
+    private final MusketeersPlugin                plugin;
+
+    /**
+     * The compiled messages, indexed by message key.
+     */
+    private volatile Map<String, MessageTemplate> templates          = new ConcurrentHashMap<String, MessageTemplate>();
+
+    /**
+     * The number of messages sent.
+     */
+    private final MetricsHelper.Counter           sent;
 
     /**
      * Constructs a new message helper.
      */
     public MessageHelper(final MusketeersPlugin plugin) {
         this.plugin = plugin;
-        this.messagePrefix = this.getConfigString("messages-prefix", "");
+        this.sent = plugin.getMetrics().counter("musketeers_messages_sent_total");
+    }
+
+    /**
+     * Discards the compiled messages, so they are compiled again from the
+     * current configuration.
+     */
+    public void invalidate() {
+        this.templates = new ConcurrentHashMap<String, MessageTemplate>();
     }
 
     /**
@@ -77,6 +109,7 @@ public class MessageHelper {
      */
     public void messagePlayer(final CommandSender player, final TextComponent message) {
         player.sendMessage(message);
+        this.sent.increment();
     }
 
     /**
@@ -119,11 +152,12 @@ public class MessageHelper {
      */
     public void messagePermission(final String permission, final TextComponent message) {
         final String permissionString = ConfigHelper.PERMISSION_PREFIX + permission;
-        for (final ProxiedPlayer player : this.plugin.getProxy().getPlayers()) {
-            if (player.hasPermission(permissionString)) {
-                player.sendMessage(message);
-            }
+        int sent = 0;
+        for (final ProxiedPlayer player : this.plugin.getPermissionHelper().getRecipients(permissionString)) {
+            player.sendMessage(message);
+            sent++;
         }
+        this.sent.add(sent);
     }
 
     /**
@@ -159,13 +193,17 @@ public class MessageHelper {
      *            Arguments to be added to the message.
      */
     public void messageEveryone(final TextComponent message) {
+        int sent = 0;
         for (final ProxiedPlayer player : this.plugin.getProxy().getPlayers()) {
             player.sendMessage(message);
+            sent++;
         }
+        this.sent.add(sent);
     }
 
     /**
-     * Builds a message for sending.
+     * Builds a message for sending. A message without arguments is built only
+     * once, so the returned component should not be modified.
      *
      * @param messageKey
      *            The key for the message to be prepared.
@@ -174,7 +212,11 @@ public class MessageHelper {
      * @return The message as a TextComponent.
      */
     public TextComponent buildMessage(final String messageKey, final String... arguments) {
-        return this.buildMessage(messageKey, Arrays.asList(arguments));
+        final MessageTemplate template = this.getTemplate(messageKey);
+        if (arguments.length == 0) {
+            return template.message;
+        }
+        return new TextComponent(template.build(Arrays.asList(arguments)));
     }
 
     /**
@@ -187,20 +229,23 @@ public class MessageHelper {
      * @return The message as a TextComponent.
      */
     public TextComponent buildMessage(final String messageKey, final Iterable<? extends String> arguments) {
-        // StringBuilder which starts with the prefix
-        final StringBuilder sb = new StringBuilder(this.messagePrefix);
-
-        // Add the message
-        sb.append(this.getConfigString(MESSAGE_KEY_PREFIX + messageKey, ""));
+        return new TextComponent(this.getTemplate(messageKey).build(arguments));
+    }
 
-        // Add all arguments, delimited by spaces
-        for (final String argument : arguments) {
-            sb.append(" ");
-            sb.append(argument);
+    /**
+     * Gets the compiled message for a message key, compiling it if required.
+     */
+    private MessageTemplate getTemplate(final String messageKey) {
+        final Map<String, MessageTemplate> templates = this.templates;
+        MessageTemplate template = templates.get(messageKey);
+        if (template == null) {
+            template = new MessageTemplate(
+                this.getConfigString("messages-prefix", "") + this.getConfigString(MESSAGE_KEY_PREFIX + messageKey, ""),
+                this.getConfigString("messages-argument-prefix", "")
+            );
+            templates.put(messageKey, template);
         }
-
-        // Return the message as a TextComponent
-        return new TextComponent(ChatColor.translateAlternateColorCodes('&', sb.toString()));
+        return template;
     }
 
     /**
@@ -218,4 +263,140 @@ public class MessageHelper {
 
         return str;
     }
-}
+
+    /**
+     * A message compiled into colorized parts between its argument slots.
+     */
+    private static final class MessageTemplate {
+        /**
+         * The colorized parts of the message, around the slots.
+         */
+        private final String[]      parts;
+
+        /**
+         * The argument index of each slot.
+         */
+        private final int[]         slots;
+
+        /**
+         * The styling of the message in effect at each slot, resumed after
+         * the argument.
+         */
+        private final String[]      styles;
+
+        /**
+         * The colorized prefix of every argument.
+         */
+        private final String        argumentPrefix;
+
+        /**
+         * The message built without any arguments.
+         */
+        private final TextComponent message;
+
+        /**
+         * Compiles a message.
+         */
+        private MessageTemplate(final String message, final String argumentPrefix) {
+            final String colorized = ChatColor.translateAlternateColorCodes('&', message);
+            final List<String> parts = new ArrayList<String>();
+            final List<Integer> slots = new ArrayList<Integer>();
+            final List<String> styles = new ArrayList<String>();
+            final Matcher matcher = SLOT_PATTERN.matcher(colorized);
+            int end = 0;
+            while (matcher.find()) {
+                parts.add(colorized.substring(end, matcher.start()));
+                slots.add(Integer.parseInt(matcher.group(1)));
+                styles.add(getStyle(colorized.substring(0, matcher.start())));
+                end = matcher.end();
+            }
+            parts.add(colorized.substring(end));
+
+            this.parts = parts.toArray(new String[parts.size()]);
+            this.slots = new int[slots.size()];
+            for (int i = 0; i < this.slots.length; i++) {
+                this.slots[i] = slots.get(i);
+            }
+            this.styles = styles.toArray(new String[styles.size()]);
+            this.argumentPrefix = ChatColor.translateAlternateColorCodes('&', argumentPrefix);
+            this.message = new TextComponent(this.build(Collections.<String>emptyList()));
+        }
+
+        /**
+         * Builds the message with the given arguments.
+         */
+        private String build(final Iterable<? extends String> arguments) {
+            // Without slots, all arguments are appended
+            if (this.slots.length == 0) {
+                final StringBuilder sb = new StringBuilder(this.parts[0]);
+                for (final String argument : arguments) {
+                    sb.append(' ');
+                    sb.append(this.argumentPrefix);
+                    sb.append(colorize(argument));
+                }
+                return sb.toString();
+            }
+
+            // Fill the slots
+            final List<String> list = new ArrayList<String>();
+            for (final String argument : arguments) {
+                list.add(argument);
+            }
+            final boolean[] used = new boolean[list.size()];
+            final StringBuilder sb = new StringBuilder(this.parts[0]);
+            for (int i = 0; i < this.slots.length; i++) {
+                final int slot = this.slots[i];
+                if (slot < list.size()) {
+                    sb.append(this.argumentPrefix);
+                    sb.append(colorize(list.get(slot)));
+                    sb.append(this.styles[i]);
+                    used[slot] = true;
+                }
+                sb.append(this.parts[i + 1]);
+            }
+
+            // Append the arguments without a slot
+            for (int i = 0; i < used.length; i++) {
+                if (!used[i]) {
+                    sb.append(' ');
+                    sb.append(this.argumentPrefix);
+                    sb.append(colorize(list.get(i)));
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Gets the styling in effect at the end of a colorized text, as a
+         * reset followed by the last color and the formats applied after it.
+         */
+        private static String getStyle(final String colorized) {
+            final StringBuilder style = new StringBuilder();
+            style.append(ChatColor.RESET);
+            final int reset = style.length();
+            for (int i = 0; i < colorized.length() - 1; i++) {
+                if (colorized.charAt(i) != ChatColor.COLOR_CHAR) {
+                    continue;
+                }
+                final char code = Character.toLowerCase(colorized.charAt(++i));
+                if ((code >= '0' && code <= '9') || (code >= 'a' && code <= 'f') || code == 'r') {
+                    // A color or a reset also resets the formats
+                    style.setLength(reset);
+                    if (code != 'r') {
+                        style.append(ChatColor.COLOR_CHAR).append(code);
+                    }
+                } else if (code >= 'k' && code <= 'o') {
+                    style.append(ChatColor.COLOR_CHAR).append(code);
+                }
+            }
+            return style.toString();
+        }
+
+        /**
+         * Colorizes an argument, just like the message itself.
+         */
+        private static String colorize(final String argument) {
+            return argument.indexOf('&') < 0 ? argument : ChatColor.translateAlternateColorCodes('&', argument);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,284 @@
+package nl.thefourmusketeers.helpers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Helper collecting operational metrics of the plugin with low overhead.
+ * Counters and histograms are updated without locking, so hot paths should
+ * look them up once and keep a reference. Metrics are named like Prometheus
+ * metrics, optionally with labels, such as
+ * musketeers_whitelist_checks_total{stage="login",result="hit"}.
+ *
+ * @author Daniël van de Giessen
+ */
+public class MetricsHelper {
+    /**
+     * The counters, indexed and sorted by name.
+     */
+    private final ConcurrentMap<String, Counter>      counters   = new ConcurrentSkipListMap<String, Counter>();
+
+    /**
+     * The histograms, indexed and sorted by name.
+     */
+    private final ConcurrentMap<String, Histogram>    histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+    /**
+     * The gauges, indexed and sorted by name.
+     */
+    private final ConcurrentMap<String, LongSupplier> gauges     = new ConcurrentSkipListMap<String, LongSupplier>();
+
+    /**
+     * Gets a counter, creating it when it is first used.
+     *
+     * @param name
+     *            The name of the counter.
+     * @return The counter.
+     */
+    public Counter counter(final String name) {
+        final Counter counter = this.counters.get(name);
+        return counter != null ? counter : this.counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Gets a latency histogram, creating it when it is first used.
+     *
+     * @param name
+     *            The name of the histogram.
+     * @return The histogram.
+     */
+    public Histogram histogram(final String name) {
+        final Histogram histogram = this.histograms.get(name);
+        return histogram != null ? histogram : this.histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, which is only read when the metrics are reported.
+     *
+     * @param name
+     *            The name of the gauge.
+     * @param gauge
+     *            The function reading the current value of the gauge.
+     */
+    public void gauge(final String name, final LongSupplier gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    /**
+     * Summarizes all metrics, one line per metric, with the count, mean and
+     * approximate percentiles of every histogram in milliseconds.
+     *
+     * @return The lines of the summary.
+     */
+    public List<String> summarize() {
+        final List<String> lines = new ArrayList<String>();
+        for (final Map.Entry<String, Counter> counter : this.counters.entrySet()) {
+            lines.add(counter.getKey() + " " + counter.getValue().get());
+        }
+        for (final Map.Entry<String, LongSupplier> gauge : this.gauges.entrySet()) {
+            lines.add(gauge.getKey() + " " + gauge.getValue().getAsLong());
+        }
+        for (final Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            final Histogram histogram = entry.getValue();
+            final long count = histogram.getCount();
+            lines.add(String.format(Locale.ROOT, "%s count=%d mean=%.3fms p50<%.3fms p99<%.3fms", entry.getKey(), count,
+                count > 0 ? histogram.getSum() / 1e6 / count : 0.0, histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.99) / 1e6));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param writer
+     *            The writer to write the metrics to.
+     * @throws IOException
+     *             When writing failed.
+     */
+    public void writePrometheus(final Writer writer) throws IOException {
+        String type = null;
+        for (final Map.Entry<String, Counter> counter : this.counters.entrySet()) {
+            type = writeType(writer, type, counter.getKey(), "counter");
+            writer.write(counter.getKey() + " " + counter.getValue().get() + "\n");
+        }
+        for (final Map.Entry<String, LongSupplier> gauge : this.gauges.entrySet()) {
+            type = writeType(writer, type, gauge.getKey(), "gauge");
+            writer.write(gauge.getKey() + " " + gauge.getValue().getAsLong() + "\n");
+        }
+        for (final Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            type = writeType(writer, type, entry.getKey(), "histogram");
+            final String name = baseName(entry.getKey());
+            final String labels = entry.getKey().substring(name.length());
+            final String bucketLabels = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+            final Histogram histogram = entry.getValue();
+
+            // Cumulative buckets, with bucket i holding durations below 2^i ns
+            long cumulative = 0;
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                cumulative += histogram.buckets[i].sum();
+                if (cumulative > 0 || i == Histogram.BUCKETS - 1) {
+                    writer.write(String.format(Locale.ROOT, "%s_bucket%sle=\"%.9f\"} %d\n", name, bucketLabels, Math.pow(2, i) / 1e9, cumulative));
+                }
+            }
+            writer.write(name + "_bucket" + bucketLabels + "le=\"+Inf\"} " + cumulative + "\n");
+            writer.write(String.format(Locale.ROOT, "%s_sum%s %.9f\n", name, labels, histogram.getSum() / 1e9));
+            writer.write(name + "_count" + labels + " " + cumulative + "\n");
+        }
+    }
+
+    /**
+     * Writes the type of a metric, unless it was written for the previous
+     * metric with the same name already.
+     */
+    private static String writeType(final Writer writer, final String previous, final String metric, final String type) throws IOException {
+        final String name = baseName(metric);
+        if (!name.equals(previous)) {
+            writer.write("# TYPE " + name + " " + type + "\n");
+        }
+        return name;
+    }
+
+    /**
+     * @return The name of a metric without its labels.
+     */
+    private static String baseName(final String metric) {
+        final int labels = metric.indexOf('{');
+        return labels < 0 ? metric : metric.substring(0, labels);
+    }
+
+    /**
+     * A counter which only increases.
+     */
+    public static final class Counter {
+        /**
+         * The value of the counter.
+         */
+        private final LongAdder value = new LongAdder();
+
+        /**
+         * Increments the counter.
+         */
+        public void increment() {
+            this.value.increment();
+        }
+
+        /**
+         * Adds to the counter.
+         *
+         * @param amount
+         *            The amount to be added.
+         */
+        public void add(final long amount) {
+            this.value.add(amount);
+        }
+
+        /**
+         * @return The value of the counter.
+         */
+        public long get() {
+            return this.value.sum();
+        }
+    }
+
+    /**
+     * A histogram of durations, counted in buckets of powers of two
+     * nanoseconds.
+     */
+    public static final class Histogram {
+        /**
+         * The number of buckets, enough for any duration.
+         */
+        private static final int  BUCKETS = 64;
+
+        /**
+         * The number of durations in each bucket.
+         */
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        /**
+         * The sum of all durations, in nanoseconds.
+         */
+        private final LongAdder   sum     = new LongAdder();
+
+        /**
+         * Constructs a new histogram.
+         */
+        private Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records the duration since the given start time.
+         *
+         * @param start
+         *            The start time, as returned by System.nanoTime().
+         */
+        public void recordSince(final long start) {
+            this.record(System.nanoTime() - start);
+        }
+
+        /**
+         * Records a duration.
+         *
+         * @param nanos
+         *            The duration in nanoseconds.
+         */
+        public void record(final long nanos) {
+            final long duration = Math.max(0, nanos);
+            this.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(duration))].increment();
+            this.sum.add(duration);
+        }
+
+        /**
+         * @return The number of recorded durations.
+         */
+        public long getCount() {
+            long count = 0;
+            for (final LongAdder bucket : this.buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @return The sum of the recorded durations, in nanoseconds.
+         */
+        public long getSum() {
+            return this.sum.sum();
+        }
+
+        /**
+         * Gets the upper bound of the bucket containing a percentile.
+         *
+         * @param percentile
+         *            The percentile, between 0 and 1.
+         * @return The upper bound of the percentile, in nanoseconds.
+         */
+        public double getPercentile(final double percentile) {
+            final long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.buckets[i].sum();
+                count += counts[i];
+            }
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen > 0 && seen >= percentile * count) {
+                    return Math.pow(2, i);
+                }
+            }
+            return 0;
+        }
+    }
+}
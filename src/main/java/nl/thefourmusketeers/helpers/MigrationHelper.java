@@ -0,0 +1,101 @@
+package nl.thefourmusketeers.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Scanner;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper providing functions used for migrating the database schema.
+ *
+ * Migrations are stored as numbered SQL files in the migrations resource
+ * folder, and the version of the schema is kept in the user_version of the
+ * database. Each migration is applied in its own transaction.
+ *
+ * @author Daniël van de Giessen
+ */
+public class MigrationHelper {
+    /**
+     * The folder containing the migrations.
+     */
+    private static final String MIGRATIONS_FOLDER = "migrations/";
+
+    /**
+     * Applies all migrations newer than the current version of the database.
+     *
+     * @param plugin The plugin instance.
+     * @param database The connection to apply the migrations on.
+     * @throws SQLException When a migration failed.
+     */
+    public static void migrate(final MusketeersPlugin plugin, final Connection database) throws SQLException {
+        final int currentVersion = getVersion(database);
+        int version = currentVersion;
+        while (true) {
+            try (final InputStream migration = plugin.getResourceAsStream(MIGRATIONS_FOLDER + (version + 1) + ".sql")) {
+                if (migration == null) {
+                    break;
+                }
+                plugin.getLogger().info("Migrating database to version " + (version + 1) + "...");
+                final long start = System.currentTimeMillis();
+                apply(database, migration, version + 1);
+                plugin.getLogger().info("Migrated database to version " + (version + 1) + " in " + (System.currentTimeMillis() - start) + " ms");
+                version++;
+            } catch (final IOException ex) {
+                throw new SQLException("Failed to read migration " + (version + 1), ex);
+            }
+        }
+        if (version != currentVersion) {
+            plugin.getLogger().info("Database migrated from version " + currentVersion + " to " + version);
+        }
+    }
+
+    /**
+     * @param database The database connection.
+     * @return The version of the database schema.
+     * @throws SQLException When the version could not be read.
+     */
+    public static int getVersion(final Connection database) throws SQLException {
+        try (
+            final Statement statement = database.createStatement();
+            final ResultSet result = statement.executeQuery("PRAGMA user_version")
+        ) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Applies a single migration in a transaction.
+     *
+     * @param database The database connection.
+     * @param migration The SQL statements of the migration.
+     * @param version The version of the schema after the migration.
+     * @throws SQLException When the migration failed.
+     */
+    private static void apply(final Connection database, final InputStream migration, final int version) throws SQLException {
+        database.setAutoCommit(false);
+        try (
+            final Statement statement = database.createStatement();
+            final Scanner s = new Scanner(migration, "UTF-8")
+        ) {
+            s.useDelimiter(";\n+");
+            while (s.hasNext()) {
+                final String sql = s.next().trim();
+                if (!sql.isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+            statement.execute("PRAGMA user_version = " + version);
+            database.commit();
+        } catch (final SQLException | RuntimeException ex) {
+            database.rollback();
+            throw ex;
+        } finally {
+            database.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package nl.thefourmusketeers.helpers;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper keeping track of which online players hold the permissions used for
+ * sending messages, so those players can be found without checking the
+ * permissions of every player.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PermissionHelper {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin                plugin;
+
+    /**
+     * The online players holding each tracked permission.
+     */
+    private final Map<String, Set<ProxiedPlayer>> recipients = new ConcurrentHashMap<String, Set<ProxiedPlayer>>();
+
+    /**
+     * Constructs a new permission helper.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PermissionHelper(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Gets the online players holding a permission. The first time a
+     * permission is requested all online players are checked, after which the
+     * permission is tracked.
+     *
+     * @param permission
+     *            The full permission node.
+     * @return The online players holding the permission.
+     */
+    public Set<ProxiedPlayer> getRecipients(final String permission) {
+        Set<ProxiedPlayer> players = this.recipients.get(permission);
+        if (players == null) {
+            players = ConcurrentHashMap.newKeySet();
+            for (final ProxiedPlayer player : this.plugin.getProxy().getPlayers()) {
+                if (player.hasPermission(permission)) {
+                    players.add(player);
+                }
+            }
+            final Set<ProxiedPlayer> existing = this.recipients.putIfAbsent(permission, players);
+            if (existing != null) {
+                players = existing;
+            }
+        }
+        return players;
+    }
+
+    /**
+     * Checks the tracked permissions of a player, used when a player logs in
+     * or their permissions may have changed.
+     *
+     * @param player
+     *            The player to be checked.
+     */
+    public void updatePlayer(final ProxiedPlayer player) {
+        for (final Map.Entry<String, Set<ProxiedPlayer>> entry : this.recipients.entrySet()) {
+            if (player.hasPermission(entry.getKey())) {
+                entry.getValue().add(player);
+            } else {
+                entry.getValue().remove(player);
+            }
+        }
+    }
+
+    /**
+     * Updates a tracked permission with the result of a permission check.
+     *
+     * @param sender
+     *            The sender whose permission was checked.
+     * @param permission
+     *            The permission node which was checked.
+     * @param hasPermission
+     *            Whether the sender has the permission.
+     */
+    public void updatePermission(final CommandSender sender, final String permission, final boolean hasPermission) {
+        final Set<ProxiedPlayer> players = this.recipients.get(permission);
+        if (players == null || !(sender instanceof ProxiedPlayer)) {
+            return;
+        }
+
+        // Only track players which are still online
+        final ProxiedPlayer player = (ProxiedPlayer) sender;
+        if (hasPermission && this.plugin.getProxy().getPlayer(player.getUniqueId()) == player) {
+            players.add(player);
+        } else {
+            players.remove(player);
+        }
+    }
+
+    /**
+     * Removes a player from all tracked permissions, used when a player
+     * disconnects.
+     *
+     * @param player
+     *            The player to be removed.
+     */
+    public void removePlayer(final ProxiedPlayer player) {
+        for (final Set<ProxiedPlayer> players : this.recipients.values()) {
+            players.remove(player);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package nl.thefourmusketeers.helpers;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper answering playtime queries from the daily playtime aggregates, or
+ * from the all-time totals for queries over all days, which are all updated
+ * whenever a session closes. Recent results are kept in a small cache, so
+ * repeated queries don't touch the database at all.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PlaytimeHelper {
+    /**
+     * The number of seconds in a day.
+     */
+    private static final long           DAY = 24 * 60 * 60;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin      plugin;
+
+    /**
+     * The maximum number of cached results.
+     */
+    private final int                   size;
+
+    /**
+     * The time a result is cached, in nanoseconds.
+     */
+    private final long                  ttl;
+
+    /**
+     * The number of players in a leaderboard.
+     */
+    private final int                   topSize;
+
+    /**
+     * The cached results, indexed by their query, in order of last use.
+     */
+    private final Map<String, Result>   cache;
+
+    /**
+     * The number of queries answered from the cache.
+     */
+    private final MetricsHelper.Counter hits;
+
+    /**
+     * The number of queries answered from the database.
+     */
+    private final MetricsHelper.Counter misses;
+
+    /**
+     * Constructs a new playtime helper.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PlaytimeHelper(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.size = Math.max(0, plugin.getConfig().getInt("playtime.cache-size", 1000));
+        this.ttl = TimeUnit.SECONDS.toNanos(Math.max(0, plugin.getConfig().getInt("playtime.cache-ttl", 60)));
+        this.topSize = Math.max(1, plugin.getConfig().getInt("playtime.top-size", 10));
+        this.hits = plugin.getMetrics().counter("musketeers_playtime_queries_total{result=\"hit\"}");
+        this.misses = plugin.getMetrics().counter("musketeers_playtime_queries_total{result=\"miss\"}");
+
+        this.cache = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Result> eldest) {
+                return this.size() > PlaytimeHelper.this.size;
+            }
+        };
+    }
+
+    /**
+     * Gets the playtime of a player per server. Sessions are only counted
+     * once they are closed.
+     *
+     * @param player
+     *            The UUID of the player.
+     * @param days
+     *            The number of days to include, counting today, or 0 for all
+     *            days.
+     * @return The playtime in seconds, indexed by server name, from the
+     *         longest to the shortest.
+     * @throws SQLException
+     *             When the playtime could not be read.
+     */
+    public Map<String, Long> getPlaytime(final UUID player, final int days) throws SQLException {
+        final long from = getStart(days);
+        return this.cached("player " + player + " " + from, database -> {
+            final PreparedStatement playtimeSelect;
+            if (from == 0) {
+                playtimeSelect = database.prepare(
+                    "SELECT server, seconds FROM playerPlaytimeServerTotals WHERE player = ? ORDER BY seconds DESC"
+                );
+                playtimeSelect.setString(1, player.toString());
+            } else {
+                playtimeSelect = database.prepare(
+                    "SELECT server, SUM(seconds) AS seconds FROM playerPlaytime WHERE player = ? AND day >= ? GROUP BY server ORDER BY seconds DESC"
+                );
+                playtimeSelect.setString(1, player.toString());
+                playtimeSelect.setLong(2, from);
+            }
+            return collect(playtimeSelect);
+        });
+    }
+
+    /**
+     * Gets the players with the most playtime.
+     *
+     * @param server
+     *            The name of the server, or null for all servers.
+     * @param days
+     *            The number of days to include, counting today, or 0 for all
+     *            days.
+     * @return The playtime in seconds, indexed by player name, from the
+     *         longest to the shortest.
+     * @throws SQLException
+     *             When the playtime could not be read.
+     */
+    public Map<String, Long> getTop(final String server, final int days) throws SQLException {
+        final long from = getStart(days);
+        return this.cached("top " + (server != null ? server : "*") + " " + from, database -> {
+            // Sum the playtime in the subquery, so only the leaders are
+            // joined with their names, or read them from the index of the
+            // all-time totals
+            final PreparedStatement topSelect;
+            if (from == 0 && server != null) {
+                topSelect = database.prepare(
+                    "SELECT COALESCE(p.name, t.player), t.seconds FROM (SELECT player, seconds FROM playerPlaytimeServerTotals "
+                    + "WHERE server = ? ORDER BY seconds DESC LIMIT ?) t LEFT JOIN players p ON p.uuid = t.player ORDER BY t.seconds DESC"
+                );
+                topSelect.setString(1, server);
+                topSelect.setInt(2, this.topSize);
+            } else if (from == 0) {
+                topSelect = database.prepare(
+                    "SELECT COALESCE(p.name, t.player), t.seconds FROM (SELECT player, seconds FROM playerPlaytimeTotals "
+                    + "ORDER BY seconds DESC LIMIT ?) t LEFT JOIN players p ON p.uuid = t.player ORDER BY t.seconds DESC"
+                );
+                topSelect.setInt(1, this.topSize);
+            } else if (server != null) {
+                topSelect = database.prepare(
+                    "SELECT COALESCE(p.name, t.player), t.seconds FROM (SELECT player, SUM(seconds) AS seconds FROM playerPlaytime "
+                    + "WHERE server = ? AND day >= ? GROUP BY +player ORDER BY seconds DESC LIMIT ?) t LEFT JOIN players p ON p.uuid = t.player ORDER BY t.seconds DESC"
+                );
+                topSelect.setString(1, server);
+                topSelect.setLong(2, from);
+                topSelect.setInt(3, this.topSize);
+            } else {
+                topSelect = database.prepare(
+                    "SELECT COALESCE(p.name, t.player), t.seconds FROM (SELECT player, SUM(seconds) AS seconds FROM playerPlaytime "
+                    + "WHERE day >= ? GROUP BY +player ORDER BY seconds DESC LIMIT ?) t LEFT JOIN players p ON p.uuid = t.player ORDER BY t.seconds DESC"
+                );
+                topSelect.setLong(1, from);
+                topSelect.setInt(2, this.topSize);
+            }
+            return collect(topSelect);
+        });
+    }
+
+    /**
+     * Gets a result from the cache, or loads and caches it if it is missing
+     * or expired. Concurrent misses for the same query may both load it.
+     */
+    private Map<String, Long> cached(final String key, final DatabaseHelper.Query<Map<String, Long>> query) throws SQLException {
+        final long now = System.nanoTime();
+        synchronized (this) {
+            final Result result = this.cache.get(key);
+            if (result != null && now - result.expiry < 0) {
+                this.hits.increment();
+                return result.playtime;
+            }
+        }
+        this.misses.increment();
+        final Map<String, Long> playtime = this.plugin.getDatabase().read(query);
+        if (this.size > 0 && this.ttl > 0) {
+            synchronized (this) {
+                this.cache.put(key, new Result(playtime, now + this.ttl));
+            }
+        }
+        return playtime;
+    }
+
+    /**
+     * @return The start of the first day of a period of the given number of
+     *         days ending today, or 0 for all days.
+     */
+    private static long getStart(final int days) {
+        if (days <= 0) {
+            return 0;
+        }
+        return (System.currentTimeMillis() / 1000 / DAY - (days - 1)) * DAY;
+    }
+
+    /**
+     * Collects the names and seconds selected by a statement, in order.
+     */
+    private static Map<String, Long> collect(final PreparedStatement statement) throws SQLException {
+        final Map<String, Long> playtime = new LinkedHashMap<String, Long>();
+        try (final ResultSet results = statement.executeQuery()) {
+            while (results.next()) {
+                playtime.put(results.getString(1), results.getLong(2));
+            }
+        }
+        return Collections.unmodifiableMap(playtime);
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Result {
+        /**
+         * The playtime of the result.
+         */
+        private final Map<String, Long> playtime;
+
+        /**
+         * The time the result expires.
+         */
+        private final long              expiry;
+
+        /**
+         * Constructs a new result.
+         */
+        private Result(final Map<String, Long> playtime, final long expiry) {
+            this.playtime = playtime;
+            this.expiry = expiry;
+        }
+    }
+}
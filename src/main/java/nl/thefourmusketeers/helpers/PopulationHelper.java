@@ -0,0 +1,138 @@
+package nl.thefourmusketeers.helpers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.api.PopulationService;
+import nl.thefourmusketeers.api.PopulationSnapshot;
+
+/**
+ * Helper keeping the population snapshot up to date from the server connect
+ * and disconnect events. Every player is tracked on the server it connected
+ * to last, so a disconnect from the previous server arriving after a switch
+ * doesn't change the counts.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PopulationHelper implements PopulationService {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin      plugin;
+
+    /**
+     * The server of every player on the network, indexed by player UUID.
+     */
+    private final Map<UUID, String>     locations = new HashMap<UUID, String>();
+
+    /**
+     * The number of players on every server with any players, indexed by
+     * server name.
+     */
+    private final Map<String, Integer>  counts    = new HashMap<String, Integer>();
+
+    /**
+     * The latest snapshot.
+     */
+    private volatile PopulationSnapshot snapshot;
+
+    /**
+     * Constructs a new population helper, starting from the players which
+     * are online already.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PopulationHelper(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.resync();
+    }
+
+    /**
+     * @return The latest population snapshot.
+     */
+    @Override
+    public PopulationSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Records that a player connected to a server, leaving the server it was
+     * on before.
+     *
+     * @param player
+     *            The UUID of the player.
+     * @param server
+     *            The name of the server.
+     */
+    public synchronized void connected(final UUID player, final String server) {
+        final String previous = this.locations.put(player, server);
+        if (server.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            this.count(previous, -1);
+        }
+        this.count(server, 1);
+        this.publish();
+    }
+
+    /**
+     * Records that a player disconnected from a server. Ignored if the player
+     * connected to another server already.
+     *
+     * @param player
+     *            The UUID of the player.
+     * @param server
+     *            The name of the server.
+     */
+    public synchronized void disconnected(final UUID player, final String server) {
+        if (!server.equals(this.locations.get(player))) {
+            return;
+        }
+        this.locations.remove(player);
+        this.count(server, -1);
+        this.publish();
+    }
+
+    /**
+     * Rebuilds the population from the players on every server.
+     */
+    public synchronized void resync() {
+        this.locations.clear();
+        this.counts.clear();
+        for (final ServerInfo server : this.plugin.getProxy().getServers().values()) {
+            for (final ProxiedPlayer player : server.getPlayers()) {
+                this.locations.put(player.getUniqueId(), server.getName());
+            }
+        }
+        for (final String server : this.locations.values()) {
+            this.count(server, 1);
+        }
+        this.publish();
+    }
+
+    /**
+     * Changes the number of players on a server.
+     */
+    private void count(final String server, final int delta) {
+        final Integer count = this.counts.get(server);
+        final int newCount = (count != null ? count : 0) + delta;
+        if (newCount > 0) {
+            this.counts.put(server, newCount);
+        } else {
+            this.counts.remove(server);
+        }
+    }
+
+    /**
+     * Publishes a snapshot of the current population.
+     */
+    private void publish() {
+        this.snapshot = new PopulationSnapshot(System.currentTimeMillis(), this.locations.size(), new HashMap<String, Integer>(this.counts));
+    }
+}
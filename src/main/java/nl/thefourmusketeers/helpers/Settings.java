@@ -0,0 +1,33 @@
+package nl.thefourmusketeers.helpers;
+
+import net.md_5.bungee.config.Configuration;
+
+/**
+ * Immutable snapshot of the settings read on hot paths, parsed once from the
+ * configuration so event handlers only read plain fields. A new snapshot is
+ * published whenever the configuration is reloaded or changed.
+ *
+ * @author Daniël van de Giessen
+ */
+public final class Settings {
+    /**
+     * Whether the whitelist is enforced.
+     */
+    public final boolean whitelistEnabled;
+
+    /**
+     * Whether the admins are notified of rejected join attempts.
+     */
+    public final boolean notifyAdmins;
+
+    /**
+     * Constructs a new settings snapshot.
+     *
+     * @param config
+     *            The configuration to be parsed.
+     */
+    public Settings(final Configuration config) {
+        this.whitelistEnabled = config.getBoolean("whitelist.enabled", false);
+        this.notifyAdmins = config.getBoolean("whitelist.notify-admins", false);
+    }
+}
@@ -0,0 +1,435 @@
+package nl.thefourmusketeers.helpers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper providing functions to export the statistics for analysis elsewhere.
+ * The rows are read in pages of a bounded size straight into gzipped CSV
+ * files, so an export takes the same amount of memory however many rows it
+ * contains. Every page is read in its own short read transaction, and the
+ * export is throttled between the pages, so an export never holds a
+ * connection or keeps the write-ahead log from being checkpointed for long.
+ * The end of the last export of the server statistics and of the player
+ * statistics is kept as a watermark each, so the next export can continue
+ * from there.
+ *
+ * A row only counts as exported once it can no longer change. The latest row
+ * of every sampled server is the open run of its player count, whose time is
+ * moved forward by the StatisticsTask, so the server statistics are exported
+ * up to the latest row of every sampled server. An open session gets a
+ * disconnect time no earlier than its connect time, so the player statistics
+ * are exported up to the connect time of every open session, and never past
+ * the server statistics so the sessions still queued by the statistics
+ * writer are not passed either. Every row before a watermark is therefore
+ * final and is exported exactly once.
+ *
+ * @author Daniël van de Giessen
+ */
+public class StatisticsExportHelper {
+    /**
+     * The name of the export and watermark of the server statistics.
+     */
+    public static final String SERVER_STATISTICS = "serverStatistics";
+
+    /**
+     * The name of the export and watermark of the player statistics.
+     */
+    public static final String PLAYER_STATISTICS = "playerStatistics";
+
+    /**
+     * The number of rows read per page.
+     */
+    private static final int   PAGE_SIZE         = 1000;
+
+    /**
+     * The size of the compression buffer, in bytes.
+     */
+    private static final int   BUFFER_SIZE       = 64 * 1024;
+
+    /**
+     * Gets the end of the last export of the server or player statistics.
+     *
+     * @param plugin The plugin instance.
+     * @param name The name of the export.
+     * @return The end of the last export in seconds since the epoch, or 0 if
+     *         nothing was exported yet.
+     * @throws SQLException When the watermark could not be read.
+     */
+    public static long getWatermark(final MusketeersPlugin plugin, final String name) throws SQLException {
+        return plugin.getDatabase().read(database -> {
+            final PreparedStatement watermarkSelect = database.prepare(
+                "SELECT time FROM exportWatermarks WHERE name = ?"
+            );
+            watermarkSelect.setString(1, name);
+            try (final ResultSet result = watermarkSelect.executeQuery()) {
+                return result.next() ? result.getLong(1) : 0L;
+            }
+        });
+    }
+
+    /**
+     * Gets the settled end of the server statistics, before which no row will
+     * change anymore.
+     *
+     * @param plugin The plugin instance.
+     * @param to The requested end of an export, in seconds since the epoch.
+     * @return The requested end, or the settled end if that is earlier.
+     * @throws SQLException When the statistics could not be read.
+     */
+    public static long getServerStatisticsEnd(final MusketeersPlugin plugin, final long to) throws SQLException {
+        final List<String> servers = new ArrayList<String>(plugin.getProxy().getServers().keySet());
+        return plugin.getDatabase().read(database -> {
+            // The open run of every sampled server
+            final PreparedStatement latestRunSelect = database.prepare(
+                "SELECT MAX(time) FROM serverStatistics WHERE server = ?"
+            );
+            long end = to;
+            for (final String server : servers) {
+                latestRunSelect.setString(1, server);
+                try (final ResultSet result = latestRunSelect.executeQuery()) {
+                    if (result.next() && result.getObject(1) != null) {
+                        end = Math.min(end, result.getLong(1));
+                    }
+                }
+            }
+            return end;
+        });
+    }
+
+    /**
+     * Gets the settled end of the player statistics, before which no session
+     * will be closed anymore.
+     *
+     * @param plugin The plugin instance.
+     * @param to The requested end of an export, in seconds since the epoch.
+     * @return The requested end, or the settled end if that is earlier.
+     * @throws SQLException When the statistics could not be read.
+     */
+    public static long getPlayerStatisticsEnd(final MusketeersPlugin plugin, final long to) throws SQLException {
+        final long end = getServerStatisticsEnd(plugin, to);
+        return plugin.getDatabase().read(database -> {
+            // The open sessions
+            try (
+                final ResultSet result = database.prepare(
+                    "SELECT MIN(connectTime) FROM playerStatistics WHERE disconnectTime IS NULL"
+                ).executeQuery()
+            ) {
+                return result.next() && result.getObject(1) != null ? Math.min(end, result.getLong(1)) : end;
+            }
+        });
+    }
+
+    /**
+     * Exports the server statistics within a time range to a gzipped CSV
+     * file. The watermark is moved forward to the end of the range if the
+     * range starts at or before it. The end should be no later than the
+     * settled end, so no exported row changes afterwards.
+     *
+     * @param plugin The plugin instance.
+     * @param folder The folder the file is written to.
+     * @param from The start of the range, in seconds since the epoch.
+     * @param to The end of the range, exclusive, in seconds since the epoch.
+     * @return The number of exported server statistics.
+     * @throws IOException When the file could not be written.
+     * @throws SQLException When the statistics could not be read.
+     */
+    public static long exportServerStatistics(final MusketeersPlugin plugin, final File folder, final long from, final long to) throws IOException, SQLException {
+        Files.createDirectories(folder.toPath());
+        final int rowsPerSecond = getRowsPerSecond(plugin);
+
+        // Read per server so the primary key is used, in pages continuing
+        // after the last time of the previous page
+        final List<String> servers = plugin.getDatabase().read(database -> {
+            final List<String> result = new ArrayList<String>();
+            try (final ResultSet results = database.prepare("SELECT name FROM servers ORDER BY name").executeQuery()) {
+                while (results.next()) {
+                    result.add(results.getString(1));
+                }
+            }
+            return result;
+        });
+        final long exported = write(new File(folder, SERVER_STATISTICS + "-" + from + "-" + to + ".csv.gz"), writer -> {
+            final Throttle throttle = new Throttle(rowsPerSecond);
+            writer.write("server,time,playerCount\n");
+            for (final String server : servers) {
+                final long[] last = { from - 1 };
+                int rows;
+                do {
+                    rows = page(plugin, database -> {
+                        final PreparedStatement serverStatisticsSelect = database.prepare(
+                            "SELECT time, playerCount FROM serverStatistics WHERE server = ? AND time > ? AND time < ? ORDER BY time LIMIT ?"
+                        );
+                        serverStatisticsSelect.setString(1, server);
+                        serverStatisticsSelect.setLong(2, last[0]);
+                        serverStatisticsSelect.setLong(3, to);
+                        serverStatisticsSelect.setInt(4, PAGE_SIZE);
+                        int count = 0;
+                        try (final ResultSet results = serverStatisticsSelect.executeQuery()) {
+                            while (results.next()) {
+                                last[0] = results.getLong(1);
+                                writer.write(escape(server));
+                                writer.write(',');
+                                writer.write(Long.toString(last[0]));
+                                writer.write(',');
+                                writer.write(Integer.toString(results.getInt(2)));
+                                writer.write('\n');
+                                count++;
+                            }
+                        }
+                        return count;
+                    });
+                    throttle.rows(rows);
+                } while (rows == PAGE_SIZE);
+            }
+            return throttle.rows;
+        });
+        moveWatermark(plugin, SERVER_STATISTICS, from, to);
+        return exported;
+    }
+
+    /**
+     * Exports the player sessions closed within a time range to a gzipped
+     * CSV file, so every session is exported exactly once. The watermark is
+     * moved forward to the end of the range if the range starts at or before
+     * it. The end should be no later than the settled end, so no session is
+     * closed within the range afterwards.
+     *
+     * @param plugin The plugin instance.
+     * @param folder The folder the file is written to.
+     * @param from The start of the range, in seconds since the epoch.
+     * @param to The end of the range, exclusive, in seconds since the epoch.
+     * @return The number of exported player statistics.
+     * @throws IOException When the file could not be written.
+     * @throws SQLException When the statistics could not be read.
+     */
+    public static long exportPlayerStatistics(final MusketeersPlugin plugin, final File folder, final long from, final long to) throws IOException, SQLException {
+        Files.createDirectories(folder.toPath());
+        final int rowsPerSecond = getRowsPerSecond(plugin);
+
+        // Read in pages continuing after the disconnect time and id of the
+        // last session of the previous page
+        final long exported = write(new File(folder, PLAYER_STATISTICS + "-" + from + "-" + to + ".csv.gz"), writer -> {
+            final Throttle throttle = new Throttle(rowsPerSecond);
+            writer.write("id,player,server,connectTime,disconnectTime\n");
+            final long[] last = { from, 0 };
+            int rows;
+            do {
+                rows = page(plugin, database -> {
+                    final PreparedStatement playerStatisticsSelect = database.prepare(
+                        "SELECT id, player, server, connectTime, disconnectTime FROM playerStatistics "
+                        + "WHERE disconnectTime >= ? AND disconnectTime < ? AND (disconnectTime > ? OR id > ?) ORDER BY disconnectTime, id LIMIT ?"
+                    );
+                    playerStatisticsSelect.setLong(1, last[0]);
+                    playerStatisticsSelect.setLong(2, to);
+                    playerStatisticsSelect.setLong(3, last[0]);
+                    playerStatisticsSelect.setLong(4, last[1]);
+                    playerStatisticsSelect.setInt(5, PAGE_SIZE);
+                    int count = 0;
+                    try (final ResultSet results = playerStatisticsSelect.executeQuery()) {
+                        while (results.next()) {
+                            last[0] = results.getLong(5);
+                            last[1] = results.getLong(1);
+                            writer.write(Long.toString(last[1]));
+                            writer.write(',');
+                            writer.write(results.getString(2));
+                            writer.write(',');
+                            writer.write(escape(results.getString(3)));
+                            writer.write(',');
+                            writer.write(Long.toString(results.getLong(4)));
+                            writer.write(',');
+                            writer.write(Long.toString(last[0]));
+                            writer.write('\n');
+                            count++;
+                        }
+                    }
+                    return count;
+                });
+                throttle.rows(rows);
+            } while (rows == PAGE_SIZE);
+            return throttle.rows;
+        });
+        moveWatermark(plugin, PLAYER_STATISTICS, from, to);
+        return exported;
+    }
+
+    /**
+     * Moves a watermark forward to the end of an exported range, but only if
+     * the range continues from it, so exporting a later range never skips the
+     * rows in between.
+     */
+    private static void moveWatermark(final MusketeersPlugin plugin, final String name, final long from, final long to) throws SQLException {
+        plugin.getDatabase().writeAndWait(database -> {
+            final PreparedStatement watermarkInsert = database.prepare(
+                "INSERT OR REPLACE INTO exportWatermarks (name, time) SELECT ?, ? "
+                + "WHERE COALESCE((SELECT time FROM exportWatermarks WHERE name = ?), 0) BETWEEN ? AND ?"
+            );
+            watermarkInsert.setString(1, name);
+            watermarkInsert.setLong(2, to);
+            watermarkInsert.setString(3, name);
+            watermarkInsert.setLong(4, from);
+            watermarkInsert.setLong(5, to);
+            return watermarkInsert.executeUpdate();
+        });
+    }
+
+    /**
+     * @return The maximum number of rows exported per second, or 0 for no
+     *         limit.
+     */
+    private static int getRowsPerSecond(final MusketeersPlugin plugin) {
+        return Math.max(0, plugin.getConfig().getInt("statistics.export.rows-per-second", 20000));
+    }
+
+    /**
+     * Writes a gzipped file through a temporary file, so a failed export
+     * never leaves a partial file behind.
+     */
+    private static long write(final File file, final Export export) throws IOException, SQLException {
+        final File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        final long exported;
+        try (
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temporaryFile.toPath()), BUFFER_SIZE), StandardCharsets.UTF_8
+            ), BUFFER_SIZE)
+        ) {
+            exported = export.run(writer);
+        } catch (final IOException | SQLException ex) {
+            Files.deleteIfExists(temporaryFile.toPath());
+            throw ex;
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return exported;
+    }
+
+    /**
+     * Reads and writes a single page of rows in its own read transaction, on
+     * one of the connections for bulk reads.
+     *
+     * @return The number of rows in the page.
+     */
+    private static int page(final MusketeersPlugin plugin, final Page page) throws IOException, SQLException {
+        try {
+            return plugin.getDatabase().readBulk(database -> {
+                try {
+                    return page.run(database);
+                } catch (final IOException ex) {
+                    throw new SQLException(ex);
+                }
+            });
+        } catch (final SQLException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return The value quoted as a CSV field if needed.
+     */
+    private static String escape(final String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * The export of a single file.
+     */
+    private interface Export {
+        /**
+         * Writes the rows of the file.
+         *
+         * @param writer
+         *            The writer of the file.
+         * @return The number of written rows.
+         * @throws IOException
+         *             When the rows could not be written.
+         * @throws SQLException
+         *             When the rows could not be read.
+         */
+        long run(Writer writer) throws IOException, SQLException;
+    }
+
+    /**
+     * A page of rows of an export.
+     */
+    private interface Page {
+        /**
+         * Reads and writes the rows of the page.
+         *
+         * @param database
+         *            The connection to read the rows from.
+         * @return The number of written rows.
+         * @throws IOException
+         *             When the rows could not be written.
+         * @throws SQLException
+         *             When the rows could not be read.
+         */
+        int run(DatabaseConnection database) throws IOException, SQLException;
+    }
+
+    /**
+     * Throttle limiting the number of rows written per second, by sleeping
+     * between the pages whenever the export runs ahead of the limit.
+     */
+    private static final class Throttle {
+        /**
+         * The maximum number of rows per second, or 0 for no limit.
+         */
+        private final int  rowsPerSecond;
+
+        /**
+         * The time the export started, in nanoseconds.
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * The number of rows written.
+         */
+        private long       rows  = 0;
+
+        /**
+         * Constructs a new throttle.
+         */
+        private Throttle(final int rowsPerSecond) {
+            this.rowsPerSecond = rowsPerSecond;
+        }
+
+        /**
+         * Counts the rows of a written page, sleeping if the export runs
+         * ahead. Should never be called while reading a page.
+         */
+        private void rows(final int rows) throws SQLException {
+            this.rows += rows;
+            if (this.rowsPerSecond == 0) {
+                return;
+            }
+            final long ahead = this.rows * 1000 / this.rowsPerSecond - (System.nanoTime() - this.start) / 1000000;
+            if (ahead > 0) {
+                try {
+                    Thread.sleep(ahead);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while exporting statistics", ex);
+                }
+            }
+        }
+    }
+}
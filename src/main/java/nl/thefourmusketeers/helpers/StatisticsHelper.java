@@ -1,7 +1,10 @@
 package nl.thefourmusketeers.helpers;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import nl.thefourmusketeers.MusketeersPlugin;
 
@@ -12,16 +15,109 @@ import nl.thefourmusketeers.MusketeersPlugin;
  */
 public class StatisticsHelper {
     /**
-     * Cleans up player statistics missing a disconnect time.
+     * The longest time range read from the minute tier, in seconds.
+     */
+    private static final long MINUTE_TIER_RANGE = 24 * 60 * 60;
+
+    /**
+     * The longest time range read from the hour tier, in seconds.
+     */
+    private static final long HOUR_TIER_RANGE   = 60 * 24 * 60 * 60;
+
+    /**
+     * The number of seconds in a day.
+     */
+    private static final long DAY               = 24 * 60 * 60;
+
+    /**
+     * Closes the sessions left open when the proxy stopped unexpectedly, using
+     * the last heartbeat of their server as the disconnect time, and adds them
+     * to the playtime.
      *
      * @param plugin The plugin instance.
      * @throws SQLException When the disconnect time could not be updated.
      */
     public static void cleanupStatistics(final MusketeersPlugin plugin) throws SQLException {
-        // Use the latest known time the server was online
-        plugin.getDatabase().prepareStatement(
-            "UPDATE playerStatistics SET disconnectTime = MAX(connectTime, (SELECT MAX(time) FROM serverStatistics s WHERE s.server = playerStatistics.server AND s.playerCount > 0)) WHERE disconnectTime IS NULL"
-        ).execute();
+        final long start = System.currentTimeMillis();
+        final int closed = plugin.getDatabase().writeAndWait(database -> {
+            // Add the sessions to the playtime before closing them
+            final PreparedStatement openSelect = database.prepare(
+                "SELECT player, server, connectTime, MAX(connectTime, COALESCE((SELECT time FROM serverHeartbeats h WHERE h.server = s.server), connectTime)) "
+                + "FROM playerStatistics s WHERE disconnectTime IS NULL"
+            );
+            try (final ResultSet results = openSelect.executeQuery()) {
+                while (results.next()) {
+                    addPlaytime(database, results.getString(1), results.getString(2), results.getLong(3), results.getLong(4));
+                }
+            }
+            return database.prepare(
+                "UPDATE playerStatistics SET disconnectTime = MAX(connectTime, COALESCE((SELECT time FROM serverHeartbeats h WHERE h.server = playerStatistics.server), connectTime)) WHERE disconnectTime IS NULL"
+            ).executeUpdate();
+        });
+        plugin.getLogger().info("Closed " + closed + " open sessions in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Adds a closed session to the playtime of the player, split over the
+     * days it spans, and to the all-time totals of the player. Should be
+     * called in the transaction closing the session.
+     *
+     * @param database The connection of the transaction.
+     * @param player The UUID of the player.
+     * @param server The name of the server.
+     * @param from The connect time of the session, in seconds since the epoch.
+     * @param to The disconnect time of the session, in seconds since the epoch.
+     * @throws SQLException When the playtime could not be updated.
+     */
+    public static void addPlaytime(final DatabaseConnection database, final String player, final String server, final long from, final long to) throws SQLException {
+        final PreparedStatement playtimeInsert = database.prepare(
+            "INSERT OR IGNORE INTO playerPlaytime (player, server, day, seconds) VALUES (?, ?, ?, 0)"
+        );
+        final PreparedStatement playtimeUpdate = database.prepare(
+            "UPDATE playerPlaytime SET seconds = seconds + ? WHERE player = ? AND server = ? AND day = ?"
+        );
+        for (long start = from; start < to; start = (start / DAY + 1) * DAY) {
+            final long day = start / DAY * DAY;
+            playtimeInsert.setString(1, player);
+            playtimeInsert.setString(2, server);
+            playtimeInsert.setLong(3, day);
+            playtimeInsert.execute();
+            playtimeUpdate.setLong(1, Math.min(to, day + DAY) - start);
+            playtimeUpdate.setString(2, player);
+            playtimeUpdate.setString(3, server);
+            playtimeUpdate.setLong(4, day);
+            playtimeUpdate.execute();
+        }
+        if (to <= from) {
+            return;
+        }
+
+        // The all-time totals, so the all-time leaderboards don't have to sum
+        // the whole history
+        final PreparedStatement totalInsert = database.prepare(
+            "INSERT OR IGNORE INTO playerPlaytimeTotals (player, seconds) VALUES (?, 0)"
+        );
+        final PreparedStatement totalUpdate = database.prepare(
+            "UPDATE playerPlaytimeTotals SET seconds = seconds + ? WHERE player = ?"
+        );
+        final PreparedStatement serverTotalInsert = database.prepare(
+            "INSERT OR IGNORE INTO playerPlaytimeServerTotals (player, server, seconds) VALUES (?, ?, 0)"
+        );
+        final PreparedStatement serverTotalUpdate = database.prepare(
+            "UPDATE playerPlaytimeServerTotals SET seconds = seconds + ? WHERE player = ? AND server = ?"
+        );
+        totalInsert.setString(1, player);
+        totalInsert.execute();
+        totalUpdate.setLong(1, to - from);
+        totalUpdate.setString(2, player);
+        totalUpdate.execute();
+        serverTotalInsert.setString(1, player);
+        serverTotalInsert.setString(2, server);
+        serverTotalInsert.execute();
+        serverTotalUpdate.setLong(1, to - from);
+        serverTotalUpdate.setString(2, player);
+        serverTotalUpdate.setString(3, server);
+        serverTotalUpdate.execute();
     }
 
     /**
@@ -32,12 +128,88 @@ public class StatisticsHelper {
      */
     public static void addServers(final MusketeersPlugin plugin) throws SQLException {
         // Get all servers
-        final PreparedStatement addServer = plugin.getDatabase().prepareStatement(
-            "INSERT OR IGNORE INTO servers ( name ) VALUES ( ? )"
-        );
-        for(final String serverName : plugin.getProxy().getServers().keySet()) {
-            addServer.setString(1, serverName);
-            addServer.execute();
+        plugin.getDatabase().writeAndWait(database -> {
+            final PreparedStatement addServer = database.prepare(
+                "INSERT OR IGNORE INTO servers ( name ) VALUES ( ? )"
+            );
+            for(final String serverName : plugin.getProxy().getServers().keySet()) {
+                addServer.setString(1, serverName);
+                addServer.execute();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Gets the player count of a server over a time range, read from the
+     * coarsest tier which still gives a useful resolution for the range.
+     *
+     * @param plugin The plugin instance.
+     * @param server The name of the server.
+     * @param from The start of the range, in seconds since the epoch.
+     * @param to The end of the range, in seconds since the epoch.
+     * @return The samples within the range, ordered by time.
+     * @throws SQLException When the samples could not be read.
+     */
+    public static List<PopulationSample> getServerPopulation(final MusketeersPlugin plugin, final String server, final long from, final long to) throws SQLException {
+        final String table;
+        if (to - from <= MINUTE_TIER_RANGE) {
+            table = "serverStatisticsMinute";
+        } else if (to - from <= HOUR_TIER_RANGE) {
+            table = "serverStatisticsHour";
+        } else {
+            table = "serverStatisticsDay";
+        }
+
+        return plugin.getDatabase().read(database -> {
+            final PreparedStatement samples = database.prepare(
+                "SELECT time, minPlayerCount, maxPlayerCount, avgPlayerCount FROM " + table + " WHERE server = ? AND time >= ? AND time < ? ORDER BY time"
+            );
+            samples.setString(1, server);
+            samples.setLong(2, from);
+            samples.setLong(3, to);
+            final List<PopulationSample> result = new ArrayList<PopulationSample>();
+            try (final ResultSet results = samples.executeQuery()) {
+                while (results.next()) {
+                    result.add(new PopulationSample(results.getLong(1), results.getInt(2), results.getInt(3), results.getDouble(4)));
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * The player count of a server aggregated over a period.
+     */
+    public static final class PopulationSample {
+        /**
+         * The start of the period, in seconds since the epoch.
+         */
+        public final long   time;
+
+        /**
+         * The lowest player count within the period.
+         */
+        public final int    minPlayerCount;
+
+        /**
+         * The highest player count within the period.
+         */
+        public final int    maxPlayerCount;
+
+        /**
+         * The average player count within the period.
+         */
+        public final double avgPlayerCount;
+
+        /**
+         * Constructs a new population sample.
+         */
+        private PopulationSample(final long time, final int minPlayerCount, final int maxPlayerCount, final double avgPlayerCount) {
+            this.time = time;
+            this.minPlayerCount = minPlayerCount;
+            this.maxPlayerCount = maxPlayerCount;
+            this.avgPlayerCount = avgPlayerCount;
         }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,478 @@
+package nl.thefourmusketeers.helpers;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.md_5.bungee.config.Configuration;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper which queues player statistics and writes them to the database in
+ * batches from a single writer thread, so event threads never wait for the
+ * database.
+ *
+ * @author Daniël van de Giessen
+ */
+public class StatisticsWriterHelper implements AutoCloseable, Runnable {
+    /**
+     * The maximum time to wait for the writer thread to finish when closing,
+     * in milliseconds.
+     */
+    private static final long                       CLOSE_TIMEOUT = 10000;
+
+    /**
+     * The maximum time the idle writer thread waits before checking whether
+     * it was closed, in milliseconds.
+     */
+    private static final long                       POLL_TIMEOUT  = 500;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin                  plugin;
+
+    /**
+     * The queue of statistics waiting to be written.
+     */
+    private final BlockingQueue<PlayerStatistic>    queue;
+
+    /**
+     * The maximum number of statistics written in a single transaction.
+     */
+    private final int                               flushSize;
+
+    /**
+     * The maximum time a statistic waits for a batch to fill up, in
+     * milliseconds.
+     */
+    private final long                              flushInterval;
+
+    /**
+     * The time an event thread waits for room in a full queue before dropping
+     * the statistic, in milliseconds.
+     */
+    private final long                              queueFullTimeout;
+
+    /**
+     * The number of statistics written to the database.
+     */
+    private final MetricsHelper.Counter             written;
+
+    /**
+     * The number of statistics dropped because the queue was full.
+     */
+    private final MetricsHelper.Counter             dropped;
+
+    /**
+     * The thread writing the statistics.
+     */
+    private final Thread                            thread;
+
+    /**
+     * Whether the writer should keep running.
+     */
+    private volatile boolean                        running       = true;
+
+    /**
+     * The latency of writing a batch.
+     */
+    private final MetricsHelper.Histogram           flushLatency;
+
+    /**
+     * The open sessions, indexed by player UUID and server name. Only used
+     * on the database writer thread, so it needs no synchronization.
+     */
+    private final Map<String, Map<String, Session>> sessions      = new HashMap<String, Map<String, Session>>();
+
+    /**
+     * Constructs a new statistics writer and starts the writer thread.
+     *
+     * @param plugin
+     *            The plugin instance.
+     * @throws SQLException
+     *             When the open sessions could not be loaded.
+     */
+    public StatisticsWriterHelper(final MusketeersPlugin plugin) throws SQLException {
+        this.plugin = plugin;
+
+        // Settings
+        final Configuration config = plugin.getConfig();
+        this.queue = new ArrayBlockingQueue<PlayerStatistic>(Math.max(1, config.getInt("statistics.queue-size", 10000)));
+        this.flushSize = Math.max(1, config.getInt("statistics.flush-size", 500));
+        this.flushInterval = Math.max(0, config.getLong("statistics.flush-interval", 1000));
+        this.queueFullTimeout = Math.max(0, config.getLong("statistics.queue-full-timeout", 0));
+
+        // Metrics
+        this.flushLatency = plugin.getMetrics().histogram("musketeers_statistics_flush_seconds");
+        plugin.getMetrics().gauge("musketeers_statistics_queue_size", this::getQueueSize);
+        this.written = plugin.getMetrics().counter("musketeers_statistics_written_total");
+        this.dropped = plugin.getMetrics().counter("musketeers_statistics_dropped_total");
+
+        // Track the sessions which are still open
+        final int open = this.track();
+        if (open > 0) {
+            plugin.getLogger().info("Tracking " + open + " open sessions");
+        }
+
+        // Start writing
+        this.thread = new Thread(this, plugin.getDescription().getName() + " statistics writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Records that a player connected to a server.
+     *
+     * @param player
+     *            The UUID of the player.
+     * @param server
+     *            The name of the server.
+     */
+    public void connected(final UUID player, final String server) {
+        this.enqueue(new PlayerStatistic(true, player.toString(), server, System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * Records that a player disconnected from a server.
+     *
+     * @param player
+     *            The UUID of the player.
+     * @param server
+     *            The name of the server.
+     */
+    public void disconnected(final UUID player, final String server) {
+        this.enqueue(new PlayerStatistic(false, player.toString(), server, System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * @return The number of statistics waiting to be written.
+     */
+    public int getQueueSize() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return The number of statistics written to the database.
+     */
+    public long getWritten() {
+        return this.written.get();
+    }
+
+    /**
+     * @return The number of statistics dropped because the queue was full.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Adds a statistic to the queue, waiting for room if configured to do so.
+     *
+     * @param statistic
+     *            The statistic to be added.
+     */
+    private void enqueue(final PlayerStatistic statistic) {
+        boolean queued;
+        try {
+            queued = this.queueFullTimeout == 0
+                ? this.queue.offer(statistic)
+                : this.queue.offer(statistic, this.queueFullTimeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            this.dropped.increment();
+        }
+    }
+
+    /**
+     * Writes the queued statistics until the writer is closed.
+     */
+    @Override
+    public void run() {
+        final List<PlayerStatistic> batch = new ArrayList<PlayerStatistic>(this.flushSize);
+        long reportedDropped = 0;
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                // Wait for the first statistic of a batch, polling so the
+                // writer notices when it is closed without being interrupted
+                final PlayerStatistic first = this.queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Give the batch until the flush interval to fill up
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.flushInterval);
+                while (batch.size() < this.flushSize) {
+                    if (this.queue.drainTo(batch, this.flushSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !this.running) {
+                        break;
+                    }
+                    final PlayerStatistic next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (final InterruptedException ex) {
+                // Write whatever we have
+            }
+
+            // Write the batch
+            if (!batch.isEmpty()) {
+                try {
+                    final long start = System.nanoTime();
+                    final int count = this.write(batch);
+                    this.flushLatency.recordSince(start);
+                    this.written.add(count);
+                } catch (final SQLException ex) {
+                    this.plugin.getLogger().severe("Failed to write " + batch.size() + " player statistics!");
+                    ex.printStackTrace();
+
+                    // The tracked sessions include the rolled back changes
+                    try {
+                        this.track();
+                    } catch (final SQLException trackEx) {
+                        this.plugin.getLogger().severe("Failed to load the open sessions!");
+                        trackEx.printStackTrace();
+                    }
+                }
+                batch.clear();
+            }
+
+            // Report dropped statistics
+            final long dropped = this.dropped.get();
+            if (dropped != reportedDropped) {
+                this.plugin.getLogger().warning("Statistics queue is full, dropped " + (dropped - reportedDropped) + " player statistics");
+                reportedDropped = dropped;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of statistics in a single transaction. Connects of
+     * players or servers which are not in the database, for example when the
+     * whitelist is off or the player was purged while online, are skipped, so
+     * they can't roll back the rest of the batch.
+     *
+     * @param batch
+     *            The statistics to be written.
+     * @return The number of written statistics.
+     * @throws SQLException
+     *             When the statistics could not be written.
+     */
+    private int write(final List<PlayerStatistic> batch) throws SQLException {
+        return this.plugin.getDatabase().writeAndWait(database -> {
+            final PreparedStatement connectInsert = database.prepare(
+                "INSERT INTO playerStatistics (player, connectTime, server) SELECT ?, ?, ? "
+                + "WHERE EXISTS (SELECT 1 FROM players WHERE uuid = ?) AND EXISTS (SELECT 1 FROM servers WHERE name = ?)"
+            );
+            final PreparedStatement lastId = database.prepare(
+                "SELECT last_insert_rowid()"
+            );
+            final PreparedStatement disconnectUpdate = database.prepare(
+                "UPDATE playerStatistics SET disconnectTime = ? WHERE id = ?"
+            );
+            final PreparedStatement untrackedSelect = database.prepare(
+                "SELECT connectTime FROM playerStatistics WHERE disconnectTime IS NULL AND player = ? AND server = ?"
+            );
+            final PreparedStatement untrackedDisconnectUpdate = database.prepare(
+                "UPDATE playerStatistics SET disconnectTime = ? WHERE disconnectTime IS NULL AND player = ? AND server = ?"
+            );
+            int written = 0;
+            for (final PlayerStatistic statistic : batch) {
+                // Close the session being replaced or ended, unless it was
+                // purged in the meantime
+                final Session session = this.close(statistic.player, statistic.server);
+                if (session != null) {
+                    disconnectUpdate.setLong(1, statistic.time);
+                    disconnectUpdate.setLong(2, session.id);
+                    if (disconnectUpdate.executeUpdate() > 0) {
+                        StatisticsHelper.addPlaytime(database, statistic.player, statistic.server, session.connectTime, statistic.time);
+                        written++;
+                    }
+                } else if (!statistic.connect) {
+                    // Not tracked, which should only happen if the connect
+                    // failed to be written
+                    untrackedSelect.setString(1, statistic.player);
+                    untrackedSelect.setString(2, statistic.server);
+                    try (final ResultSet results = untrackedSelect.executeQuery()) {
+                        while (results.next()) {
+                            StatisticsHelper.addPlaytime(database, statistic.player, statistic.server, results.getLong(1), statistic.time);
+                        }
+                    }
+                    untrackedDisconnectUpdate.setLong(1, statistic.time);
+                    untrackedDisconnectUpdate.setString(2, statistic.player);
+                    untrackedDisconnectUpdate.setString(3, statistic.server);
+                    if (untrackedDisconnectUpdate.executeUpdate() > 0) {
+                        written++;
+                    }
+                }
+
+                // Open a new session, if the player and server are known
+                if (statistic.connect) {
+                    connectInsert.setString(1, statistic.player);
+                    connectInsert.setLong(2, statistic.time);
+                    connectInsert.setString(3, statistic.server);
+                    connectInsert.setString(4, statistic.player);
+                    connectInsert.setString(5, statistic.server);
+                    if (connectInsert.executeUpdate() > 0) {
+                        try (final ResultSet result = lastId.executeQuery()) {
+                            result.next();
+                            this.open(statistic.player, statistic.server, new Session(result.getLong(1), statistic.time));
+                        }
+                        written++;
+                    }
+                }
+            }
+            return written;
+        });
+    }
+
+    /**
+     * Replaces the tracked sessions by the sessions which are open in the
+     * database.
+     *
+     * @return The number of open sessions.
+     * @throws SQLException
+     *             When the open sessions could not be loaded.
+     */
+    private int track() throws SQLException {
+        return this.plugin.getDatabase().writeAndWait(database -> {
+            this.sessions.clear();
+            try (
+                final ResultSet results = database.prepare(
+                    "SELECT id, player, server, connectTime FROM playerStatistics WHERE disconnectTime IS NULL ORDER BY id"
+                ).executeQuery()
+            ) {
+                int count = 0;
+                while (results.next()) {
+                    this.open(results.getString("player"), results.getString("server"), new Session(results.getLong("id"), results.getLong("connectTime")));
+                    count++;
+                }
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Tracks an open session. Should only be called on the writer thread.
+     */
+    private void open(final String player, final String server, final Session session) {
+        Map<String, Session> playerSessions = this.sessions.get(player);
+        if (playerSessions == null) {
+            playerSessions = new HashMap<String, Session>(2);
+            this.sessions.put(player, playerSessions);
+        }
+        playerSessions.put(server, session);
+    }
+
+    /**
+     * Stops tracking an open session. Should only be called on the writer
+     * thread.
+     *
+     * @return The session, or null if no session was open.
+     */
+    private Session close(final String player, final String server) {
+        final Map<String, Session> playerSessions = this.sessions.get(player);
+        if (playerSessions == null) {
+            return null;
+        }
+        final Session session = playerSessions.remove(server);
+        if (playerSessions.isEmpty()) {
+            this.sessions.remove(player);
+        }
+        return session;
+    }
+
+    /**
+     * Stops the writer thread after writing all queued statistics. The thread
+     * is not interrupted, as it may be waiting for a write which then still
+     * commits, but stops by itself once the queue is empty.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        try {
+            this.thread.join(CLOSE_TIMEOUT);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.thread.isAlive()) {
+            this.plugin.getLogger().severe("Statistics writer did not finish, " + this.queue.size() + " player statistics were lost!");
+        }
+        this.plugin.getLogger().info("Statistics writer closed, wrote " + this.written.get() + " and dropped " + this.dropped.get() + " player statistics");
+    }
+
+    /**
+     * An open session of a player on a server.
+     */
+    private static final class Session {
+        /**
+         * The id of the row of the session.
+         */
+        private final long id;
+
+        /**
+         * The time the session started, in seconds since the epoch.
+         */
+        private final long connectTime;
+
+        /**
+         * Constructs a new session.
+         */
+        private Session(final long id, final long connectTime) {
+            this.id = id;
+            this.connectTime = connectTime;
+        }
+    }
+
+    /**
+     * A player connect or disconnect, captured at the time it happened.
+     */
+    private static final class PlayerStatistic {
+        /**
+         * Whether this is a connect, otherwise it is a disconnect.
+         */
+        private final boolean connect;
+
+        /**
+         * The UUID of the player.
+         */
+        private final String  player;
+
+        /**
+         * The name of the server.
+         */
+        private final String  server;
+
+        /**
+         * The time of the event, in seconds since the epoch.
+         */
+        private final long    time;
+
+        /**
+         * Constructs a new player statistic.
+         */
+        private PlayerStatistic(final boolean connect, final String player, final String server, final long time) {
+            this.connect = connect;
+            this.player = player;
+            this.server = server;
+            this.time = time;
+        }
+    }
+}
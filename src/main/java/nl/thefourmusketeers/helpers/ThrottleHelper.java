@@ -0,0 +1,164 @@
+package nl.thefourmusketeers.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper throttling repeated non-whitelisted join attempts. Recently rejected
+ * attempts are remembered for a while, and every address gets a token bucket
+ * limiting how many attempts are looked up. Attempts which are suppressed by
+ * either are rejected without touching the database, the log or the admins,
+ * and are only counted by the whitelist helper.
+ *
+ * @author Daniël van de Giessen
+ */
+public class ThrottleHelper {
+    /**
+     * The maximum number of remembered rejections and addresses.
+     */
+    private final int                 size;
+
+    /**
+     * The time a rejection is remembered, in nanoseconds.
+     */
+    private final long                ttl;
+
+    /**
+     * The number of attempts an address can make in a burst.
+     */
+    private final int                 burst;
+
+    /**
+     * The number of tokens an address regains per nanosecond.
+     */
+    private final double              rate;
+
+    /**
+     * The expiry time of the recent rejections, indexed by their key, in
+     * order of insertion.
+     */
+    private final Map<String, Long>   rejections;
+
+    /**
+     * The token bucket of every address, in order of last use.
+     */
+    private final Map<String, Bucket> buckets;
+
+    /**
+     * Constructs a new throttle helper.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public ThrottleHelper(final MusketeersPlugin plugin) {
+        this.size = Math.max(0, plugin.getConfig().getInt("whitelist.throttle.size", 1000));
+        this.ttl = TimeUnit.SECONDS.toNanos(Math.max(0, plugin.getConfig().getInt("whitelist.throttle.rejection-ttl", 60)));
+        this.burst = Math.max(1, plugin.getConfig().getInt("whitelist.throttle.burst", 5));
+        this.rate = Math.max(0, plugin.getConfig().getInt("whitelist.throttle.per-minute", 10)) / (double) TimeUnit.MINUTES.toNanos(1);
+
+        this.rejections = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+                return this.size() > ThrottleHelper.this.size;
+            }
+        };
+        this.buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Bucket> eldest) {
+                return this.size() > ThrottleHelper.this.size;
+            }
+        };
+    }
+
+    /**
+     * Checks whether a join attempt which missed the whitelist index should be
+     * looked up, or be suppressed because it was rejected recently or its
+     * address made too many attempts.
+     *
+     * @param key
+     *            The key identifying the attempt, such as the name or UUID
+     *            combined with the address.
+     * @param address
+     *            The address the attempt was made from.
+     * @return Whether the attempt should be looked up.
+     */
+    public boolean allow(final String key, final String address) {
+        if (this.size == 0) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        synchronized (this) {
+            // Recently rejected?
+            final Long expiry = this.rejections.get(key);
+            if (expiry != null) {
+                if (now - expiry < 0) {
+                    return false;
+                }
+                this.rejections.remove(key);
+            }
+
+            // Does the address have a token left?
+            Bucket bucket = this.buckets.get(address);
+            if (bucket == null) {
+                bucket = new Bucket(this.burst, now);
+                this.buckets.put(address, bucket);
+            } else {
+                bucket.tokens = Math.min(this.burst, bucket.tokens + (now - bucket.time) * this.rate);
+                bucket.time = now;
+            }
+            if (bucket.tokens < 1) {
+                return false;
+            }
+            bucket.tokens--;
+            return true;
+        }
+    }
+
+    /**
+     * Remembers a rejected join attempt, so repeats are suppressed.
+     *
+     * @param key
+     *            The key identifying the attempt.
+     */
+    public void rejected(final String key) {
+        if (this.size == 0 || this.ttl == 0) {
+            return;
+        }
+        final long expiry = System.nanoTime() + this.ttl;
+        synchronized (this) {
+            // Move the key to the end, keeping the map in order of expiry
+            this.rejections.remove(key);
+            this.rejections.put(key, expiry);
+        }
+    }
+
+    /**
+     * The token bucket of an address.
+     */
+    private static final class Bucket {
+        /**
+         * The number of tokens left.
+         */
+        private double tokens;
+
+        /**
+         * The time the tokens were last refilled.
+         */
+        private long   time;
+
+        /**
+         * Constructs a new bucket.
+         */
+        private Bucket(final double tokens, final long time) {
+            this.tokens = tokens;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package nl.thefourmusketeers.helpers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper providing functions to import and export the whitelist. Files are
+ * either CSV, with a uuid,name line per player, or JSON, with an array of
+ * objects with a uuid and name like the whitelist.json of a Minecraft
+ * server. The format is chosen by the extension of the file.
+ *
+ * @author Daniël van de Giessen
+ */
+public class WhitelistFileHelper {
+    /**
+     * The default number of players written per transaction when importing.
+     */
+    public static final int      BATCH_SIZE  = 1000;
+
+    /**
+     * The header of a CSV file.
+     */
+    private static final String  CSV_HEADER  = "uuid,name";
+
+    /**
+     * The canonical form of a UUID, as UUID.fromString also accepts shorter
+     * forms.
+     */
+    private static final Pattern UUID_FORMAT = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    /**
+     * Imports the players in a file into the whitelist, streaming the file
+     * and writing the players in batches, each in its own transaction. The
+     * index is reloaded once all batches have been written, or when the
+     * import fails halfway, so it always matches the database.
+     *
+     * @param plugin The plugin instance.
+     * @param file The file to be imported.
+     * @return The number of imported players and the number of skipped
+     *         invalid entries.
+     * @throws IOException When the file could not be read.
+     * @throws SQLException When the players could not be stored.
+     */
+    public static int[] importFile(final MusketeersPlugin plugin, final File file) throws IOException, SQLException {
+        final int batchSize = Math.max(1, plugin.getConfig().getInt("whitelist.import-batch-size", BATCH_SIZE));
+        final Batch batch = new Batch(plugin, batchSize);
+        try (final BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (isJson(file)) {
+                readJson(reader, batch);
+            } else {
+                readCsv(reader, batch);
+            }
+            batch.flush();
+        } finally {
+            plugin.getWhitelistHelper().reload();
+        }
+        return new int[] { batch.imported, batch.skipped };
+    }
+
+    /**
+     * Exports the whitelist to a file, streaming the players from a read
+     * connection. The file is written next to its destination first, so an
+     * existing file is only replaced by a complete export.
+     *
+     * @param plugin The plugin instance.
+     * @param file The file to be written.
+     * @return The number of exported players.
+     * @throws IOException When the file could not be written.
+     * @throws SQLException When the players could not be read.
+     */
+    public static int exportFile(final MusketeersPlugin plugin, final File file) throws IOException, SQLException {
+        final File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        final int exported;
+        try (final BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+            exported = plugin.getDatabase().readBulk(database -> {
+                try (
+                    final ResultSet results = database.prepare(
+                        "SELECT uuid, name FROM players WHERE removedTime IS NULL ORDER BY name"
+                    ).executeQuery()
+                ) {
+                    try {
+                        return isJson(file) ? writeJson(writer, results) : writeCsv(writer, results);
+                    } catch (final IOException ex) {
+                        throw new SQLException("Failed to write " + file.getName(), ex);
+                    }
+                }
+            });
+        } catch (final IOException | SQLException ex) {
+            Files.deleteIfExists(temporaryFile.toPath());
+            throw ex;
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return exported;
+    }
+
+    /**
+     * @return Whether the file is a JSON file.
+     */
+    private static boolean isJson(final File file) {
+        return file.getName().toLowerCase().endsWith(".json");
+    }
+
+    /**
+     * Reads the players of a CSV file. Blank lines, comments and a header like
+     * the one of an export are skipped, lines which don't start with a valid
+     * UUID are counted as invalid entries.
+     */
+    private static void readCsv(final BufferedReader reader, final Batch batch) throws IOException, SQLException {
+        String line;
+        boolean first = true;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (first) {
+                first = false;
+                if (line.replace(" ", "").equalsIgnoreCase(CSV_HEADER)) {
+                    continue;
+                }
+            }
+            final String[] fields = line.split(",", 3);
+            batch.add(fields[0].trim(), fields.length > 1 ? fields[1].trim() : null);
+        }
+    }
+
+    /**
+     * Reads the players of a JSON file, ignoring any other properties.
+     */
+    private static void readJson(final Reader reader, final Batch batch) throws IOException, SQLException {
+        try (final JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+            while (json.hasNext()) {
+                String uuid = null;
+                String name = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    final String property = json.nextName();
+                    if (json.peek() == JsonToken.STRING && property.equals("uuid")) {
+                        uuid = json.nextString();
+                    } else if (json.peek() == JsonToken.STRING && property.equals("name")) {
+                        name = json.nextString();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                batch.add(uuid, name);
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Writes the players as CSV.
+     */
+    private static int writeCsv(final Writer writer, final ResultSet results) throws IOException, SQLException {
+        int exported = 0;
+        writer.write(CSV_HEADER + "\n");
+        while (results.next()) {
+            writer.write(results.getString("uuid"));
+            writer.write(',');
+            writer.write(results.getString("name"));
+            writer.write('\n');
+            exported++;
+        }
+        return exported;
+    }
+
+    /**
+     * Writes the players as JSON.
+     */
+    private static int writeJson(final Writer writer, final ResultSet results) throws IOException, SQLException {
+        int exported = 0;
+        final JsonWriter json = new JsonWriter(writer);
+        json.setIndent("  ");
+        json.beginArray();
+        while (results.next()) {
+            json.beginObject();
+            json.name("uuid").value(results.getString("uuid"));
+            json.name("name").value(results.getString("name"));
+            json.endObject();
+            exported++;
+        }
+        json.endArray();
+        json.flush();
+        return exported;
+    }
+
+    /**
+     * A batch of imported players, written to the database whenever it is
+     * full.
+     */
+    private static final class Batch {
+        /**
+         * The plugin instance.
+         */
+        private final MusketeersPlugin  plugin;
+
+        /**
+         * The number of players written per transaction.
+         */
+        private final int               size;
+
+        /**
+         * The players in the batch, indexed by their UUID.
+         */
+        private final Map<UUID, String> players  = new LinkedHashMap<UUID, String>();
+
+        /**
+         * The number of imported players.
+         */
+        private int                     imported = 0;
+
+        /**
+         * The number of skipped invalid entries.
+         */
+        private int                     skipped  = 0;
+
+        /**
+         * Constructs a new batch.
+         */
+        private Batch(final MusketeersPlugin plugin, final int size) {
+            this.plugin = plugin;
+            this.size = size;
+        }
+
+        /**
+         * Adds a player to the batch, or skips it if it is invalid.
+         */
+        private void add(final String uuid, final String name) throws SQLException {
+            if (uuid == null || name == null || name.isEmpty() || !UUID_FORMAT.matcher(uuid).matches()) {
+                this.skipped++;
+                return;
+            }
+            this.players.put(UUID.fromString(uuid), name);
+            if (this.players.size() >= this.size) {
+                this.flush();
+            }
+        }
+
+        /**
+         * Writes the players in the batch.
+         */
+        private void flush() throws SQLException {
+            if (this.players.isEmpty()) {
+                return;
+            }
+            this.imported += this.plugin.getWhitelistHelper().write(this.players);
+            this.players.clear();
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package nl.thefourmusketeers.helpers;
+
+import java.net.InetSocketAddress;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Helper providing an in-memory index of the whitelisted players, so checking
+ * the whitelist never has to touch the database.
+ *
+ * @author Daniël van de Giessen
+ */
+public class WhitelistHelper {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin              plugin;
+
+    /**
+     * Lock serializing all modifications of the index.
+     */
+    private final Object                        lock     = new Object();
+
+    /**
+     * The number of modifications of the index, used to discard the result
+     * of a lookup when the index was modified while the database was read.
+     * Only accessed while holding the lock.
+     */
+    private long                                modifications;
+
+    /**
+     * The names of all whitelisted players, indexed by their UUID.
+     */
+    private volatile Map<UUID, String>          players;
+
+    /**
+     * The UUIDs of all whitelisted players, indexed and sorted by their
+     * lowercase name.
+     */
+    private volatile NavigableMap<String, UUID> names;
+
+    /**
+     * The number of rejected join attempts.
+     */
+    private final MetricsHelper.Counter         denied;
+
+    /**
+     * The number of join attempts suppressed by the throttle.
+     */
+    private final MetricsHelper.Counter         suppressed;
+
+    /**
+     * The UUIDs of the online players which were approved when logging in.
+     */
+    private final Set<UUID>                     approved = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a new whitelist helper and loads the whitelist from the
+     * database.
+     *
+     * @param plugin
+     *            The plugin instance.
+     * @throws SQLException
+     *             When the whitelist could not be loaded.
+     */
+    public WhitelistHelper(final MusketeersPlugin plugin) throws SQLException {
+        this.plugin = plugin;
+        this.denied = plugin.getMetrics().counter("musketeers_whitelist_rejections_total{result=\"deny\"}");
+        this.suppressed = plugin.getMetrics().counter("musketeers_whitelist_rejections_total{result=\"suppressed\"}");
+        this.reload();
+    }
+
+    /**
+     * Checks whether a player is whitelisted.
+     *
+     * @param uuid
+     *            The UUID of the player.
+     * @param name
+     *            The name of the player.
+     * @return Whether the player is whitelisted with the given name.
+     */
+    public boolean isWhitelisted(final UUID uuid, final String name) {
+        final String whitelistedName = this.players.get(uuid);
+        return whitelistedName != null && whitelistedName.equals(name);
+    }
+
+    /**
+     * Checks whether a name is whitelisted, ignoring case. Used before the
+     * player is authenticated, when the UUID is not known yet.
+     *
+     * @param name
+     *            The name of the player.
+     * @return Whether a player with the given name is whitelisted.
+     */
+    public boolean isWhitelisted(final String name) {
+        return this.names.containsKey(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Checks whether a player is whitelisted in the database, adding the
+     * player to the index if so. Used when the index misses, so players
+     * added to the database by other means are not rejected until the next
+     * reload. The database is read without holding the lock, so lookups
+     * don't wait for each other. Blocks, so should never be called from a
+     * network thread.
+     *
+     * @param uuid
+     *            The UUID of the player.
+     * @param name
+     *            The name of the player.
+     * @return Whether the player is whitelisted with the given name.
+     * @throws SQLException
+     *             When the whitelist could not be queried.
+     */
+    public boolean lookup(final UUID uuid, final String name) throws SQLException {
+        final long modifications = this.getModifications();
+        final String whitelistedName = this.plugin.getDatabase().read(database -> {
+            final PreparedStatement playerSelect = database.prepare(
+                "SELECT name FROM players WHERE uuid = ? AND removedTime IS NULL"
+            );
+            playerSelect.setString(1, uuid.toString());
+            try (final ResultSet results = playerSelect.executeQuery()) {
+                return results.next() ? results.getString("name") : null;
+            }
+        });
+        if (whitelistedName == null) {
+            return false;
+        }
+        synchronized (this.lock) {
+            if (this.modifications == modifications) {
+                this.index(uuid, whitelistedName);
+            }
+        }
+        return whitelistedName.equals(name);
+    }
+
+    /**
+     * Checks whether a name is whitelisted in the database, ignoring case,
+     * adding the matching players to the index. Like the lookup by UUID, the
+     * database is read without holding the lock. Blocks, so should never be
+     * called from a network thread.
+     *
+     * @param name
+     *            The name of the player.
+     * @return Whether a player with the given name is whitelisted.
+     * @throws SQLException
+     *             When the whitelist could not be queried.
+     */
+    public boolean lookup(final String name) throws SQLException {
+        final long modifications = this.getModifications();
+        final Map<UUID, String> players = this.plugin.getDatabase().read(database -> {
+            final Map<UUID, String> result = new HashMap<UUID, String>();
+            final PreparedStatement playerSelect = database.prepare(
+                "SELECT uuid, name FROM players WHERE name = ? COLLATE NOCASE AND removedTime IS NULL"
+            );
+            playerSelect.setString(1, name);
+            try (final ResultSet results = playerSelect.executeQuery()) {
+                while (results.next()) {
+                    result.put(UUID.fromString(results.getString("uuid")), results.getString("name"));
+                }
+            }
+            return result;
+        });
+        synchronized (this.lock) {
+            if (this.modifications == modifications) {
+                for (final Map.Entry<UUID, String> player : players.entrySet()) {
+                    this.index(player.getKey(), player.getValue());
+                }
+            }
+        }
+        return !players.isEmpty();
+    }
+
+    /**
+     * @return The number of modifications of the index so far.
+     */
+    private long getModifications() {
+        synchronized (this.lock) {
+            return this.modifications;
+        }
+    }
+
+    /**
+     * Marks an online player as approved, so the whitelist does not have to
+     * be checked again when the player switches servers.
+     *
+     * @param uuid
+     *            The UUID of the player.
+     */
+    public void approve(final UUID uuid) {
+        this.approved.add(uuid);
+    }
+
+    /**
+     * Forgets the approval of a player, used when the player disconnects.
+     *
+     * @param uuid
+     *            The UUID of the player.
+     */
+    public void disapprove(final UUID uuid) {
+        this.approved.remove(uuid);
+    }
+
+    /**
+     * @param uuid
+     *            The UUID of the player.
+     * @return Whether the player was approved when logging in and has not
+     *         been removed from the whitelist since.
+     */
+    public boolean isApproved(final UUID uuid) {
+        return this.approved.contains(uuid);
+    }
+
+    /**
+     * Handles a rejected join attempt by logging it and notifying the admins.
+     *
+     * @param name
+     *            The name of the rejected player.
+     * @param address
+     *            The address the attempt was made from.
+     */
+    public void rejected(final String name, final InetSocketAddress address) {
+        this.denied.increment();
+        this.plugin.getLogger().info(name + " is not whitelisted, access blocked");
+
+        // Notify admins?
+        if (this.plugin.getSettings().notifyAdmins) {
+            if (this.plugin.getWhitelistNotifyTask() != null) {
+                this.plugin.getWhitelistNotifyTask().reject(name, address.getAddress().getHostAddress());
+            } else {
+                this.plugin.getMessageHelper().messagePermission("whitelist.notify", "whitelist-notify", name);
+            }
+        }
+    }
+
+    /**
+     * Handles a join attempt suppressed by the throttle, which is only
+     * counted.
+     */
+    public void suppressed() {
+        this.suppressed.increment();
+        if (this.plugin.getSettings().notifyAdmins && this.plugin.getWhitelistNotifyTask() != null) {
+            this.plugin.getWhitelistNotifyTask().suppress();
+        }
+    }
+
+    /**
+     * @return The number of whitelisted players.
+     */
+    public int size() {
+        return this.players.size();
+    }
+
+    /**
+     * Lists a page of the whitelisted players, sorted by name.
+     *
+     * @param offset
+     *            The number of players to skip.
+     * @param limit
+     *            The maximum number of players listed.
+     * @return The names of the players.
+     */
+    public List<String> list(final int offset, final int limit) {
+        return this.collect(this.names, offset, limit);
+    }
+
+    /**
+     * Lists the whitelisted players whose name starts with the given prefix,
+     * ignoring case, sorted by name.
+     *
+     * @param prefix
+     *            The prefix of the names.
+     * @param limit
+     *            The maximum number of players listed.
+     * @return The names of the players.
+     */
+    public List<String> search(final String prefix, final int limit) {
+        final String from = prefix.toLowerCase(Locale.ROOT);
+        return this.collect(this.names.subMap(from, true, from + Character.MAX_VALUE, false), 0, limit);
+    }
+
+    /**
+     * Resynchronizes the index with the database, replacing the current index
+     * atomically.
+     *
+     * @throws SQLException
+     *             When the whitelist could not be loaded.
+     */
+    public void reload() throws SQLException {
+        synchronized (this.lock) {
+            final Map<UUID, String> players = this.plugin.getDatabase().readBulk(database -> {
+                final Map<UUID, String> result = new ConcurrentHashMap<UUID, String>();
+                try (
+                    final ResultSet results = database.prepare(
+                        "SELECT uuid, name FROM players WHERE removedTime IS NULL"
+                    ).executeQuery()
+                ) {
+                    while (results.next()) {
+                        result.put(UUID.fromString(results.getString("uuid")), results.getString("name"));
+                    }
+                }
+                return result;
+            });
+            final NavigableMap<String, UUID> names = new ConcurrentSkipListMap<String, UUID>();
+            for (final Map.Entry<UUID, String> player : players.entrySet()) {
+                names.put(player.getValue().toLowerCase(Locale.ROOT), player.getKey());
+            }
+            this.players = players;
+            this.names = names;
+            this.modifications++;
+            this.plugin.getLogger().info("Loaded " + players.size() + " whitelisted players");
+        }
+    }
+
+    /**
+     * Adds a player to the whitelist, or updates the name of an already
+     * whitelisted player. If another player still holds the name, for
+     * example because it was renamed or removed, that player loses it.
+     *
+     * @param uuid
+     *            The UUID of the player.
+     * @param name
+     *            The name of the player.
+     * @throws SQLException
+     *             When the player could not be stored.
+     */
+    public void add(final UUID uuid, final String name) throws SQLException {
+        synchronized (this.lock) {
+            final List<UUID> previousHolders = this.plugin.getDatabase().writeAndWait(database -> {
+                final List<UUID> holders = releaseName(database, uuid, name);
+                store(database, uuid, name);
+                return holders;
+            });
+            for (final UUID previousHolder : previousHolders) {
+                if (this.players.containsKey(previousHolder)) {
+                    this.index(previousHolder, previousHolder.toString());
+                }
+            }
+            this.index(uuid, name);
+            this.modifications++;
+        }
+    }
+
+    /**
+     * Adds a batch of players to the whitelist in a single transaction, or
+     * updates the names of already whitelisted players, like add. Used for
+     * bulk imports, so the index is not updated and should be reloaded when
+     * all batches have been written.
+     *
+     * @param players
+     *            The names of the players, indexed by their UUID.
+     * @return The number of stored players.
+     * @throws SQLException
+     *             When the players could not be stored.
+     */
+    public int write(final Map<UUID, String> players) throws SQLException {
+        return this.plugin.getDatabase().writeAndWait(database -> {
+            int stored = 0;
+            for (final Map.Entry<UUID, String> player : players.entrySet()) {
+                releaseName(database, player.getKey(), player.getValue());
+                stored += store(database, player.getKey(), player.getValue());
+            }
+            return stored;
+        });
+    }
+
+    /**
+     * Takes a name away from the other players holding it, ignoring case, so
+     * it can be given to another player. The name of such a player is
+     * replaced by its UUID, which can never be a valid name.
+     *
+     * @return The UUIDs of the players which held the name.
+     */
+    private static List<UUID> releaseName(final DatabaseConnection database, final UUID uuid, final String name) throws SQLException {
+        final List<UUID> holders = new ArrayList<UUID>(1);
+        final PreparedStatement holderSelect = database.prepare(
+            "SELECT uuid FROM players WHERE name = ? COLLATE NOCASE AND uuid <> ?"
+        );
+        holderSelect.setString(1, name);
+        holderSelect.setString(2, uuid.toString());
+        try (final ResultSet results = holderSelect.executeQuery()) {
+            while (results.next()) {
+                holders.add(UUID.fromString(results.getString("uuid")));
+            }
+        }
+        if (!holders.isEmpty()) {
+            final PreparedStatement nameRelease = database.prepare(
+                "UPDATE players SET name = uuid WHERE name = ? COLLATE NOCASE AND uuid <> ?"
+            );
+            nameRelease.setString(1, name);
+            nameRelease.setString(2, uuid.toString());
+            nameRelease.execute();
+        }
+        return holders;
+    }
+
+    /**
+     * Stores a player whose name is not held by any other player.
+     *
+     * @return The number of stored players.
+     */
+    private static int store(final DatabaseConnection database, final UUID uuid, final String name) throws SQLException {
+        // Updating instead of replacing keeps the statistics of the player,
+        // and restores a removed player
+        final PreparedStatement playerUpdate = database.prepare(
+            "UPDATE players SET name = ?, removedTime = NULL WHERE uuid = ?"
+        );
+        playerUpdate.setString(1, name);
+        playerUpdate.setString(2, uuid.toString());
+        final int updated = playerUpdate.executeUpdate();
+        if (updated > 0) {
+            return updated;
+        }
+        final PreparedStatement playerInsert = database.prepare(
+            "INSERT INTO players (uuid, name) VALUES (?, ?)"
+        );
+        playerInsert.setString(1, uuid.toString());
+        playerInsert.setString(2, name);
+        return playerInsert.executeUpdate();
+    }
+
+    /**
+     * Finds the UUID of a whitelisted player by name, ignoring case.
+     *
+     * @param name
+     *            The name of the player.
+     * @return The UUID of the player, or null if no player with the given
+     *         name is whitelisted.
+     */
+    public UUID getUniqueId(final String name) {
+        return this.names.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Removes a player from the whitelist. The player is only marked as
+     * removed, its statistics are kept until the PurgeTask purges the
+     * player in the background.
+     *
+     * @param uuid
+     *            The UUID of the player.
+     * @throws SQLException
+     *             When the player could not be removed.
+     */
+    public void remove(final UUID uuid) throws SQLException {
+        synchronized (this.lock) {
+            this.plugin.getDatabase().writeAndWait(database -> {
+                final PreparedStatement playerRemove = database.prepare(
+                    "UPDATE players SET removedTime = ? WHERE uuid = ? AND removedTime IS NULL"
+                );
+                playerRemove.setLong(1, System.currentTimeMillis() / 1000);
+                playerRemove.setString(2, uuid.toString());
+                playerRemove.execute();
+                return null;
+            });
+            final String name = this.players.remove(uuid);
+            if (name != null) {
+                this.names.remove(name.toLowerCase(Locale.ROOT), uuid);
+            }
+            this.approved.remove(uuid);
+            this.modifications++;
+        }
+    }
+
+    /**
+     * Collects the current names of a range of the name index.
+     */
+    private List<String> collect(final NavigableMap<String, UUID> names, final int offset, final int limit) {
+        final Map<UUID, String> players = this.players;
+        final List<String> result = new ArrayList<String>(limit);
+        int skipped = 0;
+        for (final UUID uuid : names.values()) {
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            if (result.size() == limit) {
+                break;
+            }
+
+            // The player may have been removed since
+            final String name = players.get(uuid);
+            if (name != null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a player to the index, replacing any previous name of the player.
+     * Should only be called while holding the lock.
+     */
+    private void index(final UUID uuid, final String name) {
+        final String previousName = this.players.put(uuid, name);
+        if (previousName != null) {
+            this.names.remove(previousName.toLowerCase(Locale.ROOT), uuid);
+        }
+        this.names.put(name.toLowerCase(Locale.ROOT), uuid);
+    }
+}
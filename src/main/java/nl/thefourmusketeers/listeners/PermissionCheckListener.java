@@ -0,0 +1,41 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.event.PermissionCheckEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Permission check listener for permission tracking functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PermissionCheckListener implements Listener {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new permission check listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PermissionCheckListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for permission checks, updates the tracked permissions
+     * with the final result of the check.
+     *
+     * @param event
+     *            The permission check event to be handled.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPermissionCheck(final PermissionCheckEvent event) {
+        this.plugin.getPermissionHelper().updatePermission(event.getSender(), event.getPermission(), event.hasPermission());
+    }
+}
@@ -0,0 +1,40 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Post login listener for permission tracking functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PermissionPostLoginListener implements Listener {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new post login listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PermissionPostLoginListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for player logins, checks the tracked permissions of the
+     * player.
+     *
+     * @param event
+     *            The post login event to be handled.
+     */
+    @EventHandler
+    public void onPostLogin(final PostLoginEvent event) {
+        this.plugin.getPermissionHelper().updatePlayer(event.getPlayer());
+    }
+}
@@ -0,0 +1,40 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.event.ServerSwitchEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Server switch listener for permission tracking functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PermissionServerSwitchListener implements Listener {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new server switch listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PermissionServerSwitchListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for server switches, checks the tracked permissions of the
+     * player again as they may depend on the server.
+     *
+     * @param event
+     *            The server switch event to be handled.
+     */
+    @EventHandler
+    public void onServerSwitch(final ServerSwitchEvent event) {
+        this.plugin.getPermissionHelper().updatePlayer(event.getPlayer());
+    }
+}
@@ -0,0 +1,41 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.event.ServerConnectedEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Server connected listener for population functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PopulationServerConnectedListener implements Listener {
+    /**
+     * The plugin instance
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new server connected listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PopulationServerConnectedListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for once a player is connected to a server, counts the
+     * player on the server.
+     *
+     * @param event
+     *            The server connected event to be handled.
+     */
+    @EventHandler
+    public void onServerConnected(final ServerConnectedEvent event) {
+        // Update the population
+        this.plugin.getPopulationHelper().connected(event.getPlayer().getUniqueId(), event.getServer().getInfo().getName());
+    }
+}
@@ -0,0 +1,41 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.event.ServerDisconnectEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Server disconnect listener for population functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PopulationServerDisconnectListener implements Listener {
+    /**
+     * The plugin instance
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new server disconnect listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PopulationServerDisconnectListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for server disconnects, stops counting the player on the
+     * server.
+     *
+     * @param event
+     *            The server disconnect event to be handled.
+     */
+    @EventHandler
+    public void onServerDisconnect(final ServerDisconnectEvent event) {
+        // Update the population
+        this.plugin.getPopulationHelper().disconnected(event.getPlayer().getUniqueId(), event.getTarget().getName());
+    }
+}
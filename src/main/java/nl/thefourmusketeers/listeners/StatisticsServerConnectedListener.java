@@ -1,8 +1,5 @@
 package nl.thefourmusketeers.listeners;
 
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-
 import net.md_5.bungee.api.event.ServerConnectedEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
@@ -39,19 +36,8 @@ public class StatisticsServerConnectedListener implements Listener {
      */
     @EventHandler
     public void onServerConnected(final ServerConnectedEvent event) {
-        // Update the player statistics
-        try (
-            final PreparedStatement playerStatistics = this.plugin.getDatabase().prepareStatement(
-                "INSERT INTO playerStatistics (player, connectTime, server) VALUES (?, strftime('%s', 'now'), ?)"
-            )
-        ) {
-            playerStatistics.setString(1, event.getPlayer().getUniqueId().toString());
-            playerStatistics.setString(2, event.getServer().getInfo().getName());
-            playerStatistics.execute();
-        } catch (final SQLException ex) {
-            this.plugin.getLogger().severe("Failed to write player connect statistics!");
-            ex.printStackTrace();
-        }
+        // Queue the player statistics
+        this.plugin.getStatisticsWriter().connected(event.getPlayer().getUniqueId(), event.getServer().getInfo().getName());
     }
 
 }
@@ -1,8 +1,5 @@
 package nl.thefourmusketeers.listeners;
 
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-
 import net.md_5.bungee.api.event.ServerDisconnectEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
@@ -38,18 +35,7 @@ public class StatisticsServerDisconnectListener implements Listener {
      */
     @EventHandler
     public void onServerDisconnect(final ServerDisconnectEvent event) {
-        // Update the player statistics
-        try (
-            final PreparedStatement playerStatistics = this.plugin.getDatabase().prepareStatement(
-                "UPDATE playerStatistics SET disconnectTime = strftime('%s', 'now') WHERE disconnectTime IS NULL AND player = ? AND server = ?"
-            )
-        ) {
-            playerStatistics.setString(1, event.getPlayer().getUniqueId().toString());
-            playerStatistics.setString(2, event.getTarget().getName());
-            playerStatistics.execute();
-        } catch (final SQLException ex) {
-            this.plugin.getLogger().severe("Failed to write player disconnect statistics!");
-            ex.printStackTrace();
-        }
+        // Queue the player statistics
+        this.plugin.getStatisticsWriter().disconnected(event.getPlayer().getUniqueId(), event.getTarget().getName());
     }
 }
@@ -0,0 +1,40 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Player disconnect listener for whitelist functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class WhitelistPlayerDisconnectListener implements Listener {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new player disconnect listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public WhitelistPlayerDisconnectListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for player disconnects, forgets the approval of the
+     * player.
+     *
+     * @param event
+     *            The player disconnect event to be handled.
+     */
+    @EventHandler
+    public void onPlayerDisconnect(final PlayerDisconnectEvent event) {
+        this.plugin.getWhitelistHelper().disapprove(event.getPlayer().getUniqueId());
+    }
+}
@@ -0,0 +1,44 @@
+package nl.thefourmusketeers.listeners;
+
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Post login listener for whitelist functionality.
+ *
+ * @author Daniël van de Giessen
+ */
+public class WhitelistPostLoginListener implements Listener {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new post login listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public WhitelistPostLoginListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Event handler for player logins, approves the player if it passed the
+     * whitelist so it isn't checked again on every server switch.
+     *
+     * @param event
+     *            The post login event to be handled.
+     */
+    @EventHandler
+    public void onPostLogin(final PostLoginEvent event) {
+        final ProxiedPlayer p = event.getPlayer();
+        if (this.plugin.getSettings().whitelistEnabled && this.plugin.getWhitelistHelper().isWhitelisted(p.getUniqueId(), p.getName())) {
+            this.plugin.getWhitelistHelper().approve(p.getUniqueId());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package nl.thefourmusketeers.listeners;
+
+import java.sql.SQLException;
+import java.util.Locale;
+
+import net.md_5.bungee.api.connection.PendingConnection;
+import net.md_5.bungee.api.event.PreLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.helpers.MetricsHelper;
+
+/**
+ * Pre login listener for whitelist functionality, rejecting players by their
+ * name before the proxy authenticates them.
+ *
+ * @author Daniël van de Giessen
+ */
+public class WhitelistPreLoginListener implements Listener {
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin      plugin;
+
+    /**
+     * The number of checks answered by the whitelist index.
+     */
+    private final MetricsHelper.Counter hits;
+
+    /**
+     * The number of checks missing the whitelist index.
+     */
+    private final MetricsHelper.Counter misses;
+
+    /**
+     * Constructs a new pre login listener.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public WhitelistPreLoginListener(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.hits = plugin.getMetrics().counter("musketeers_whitelist_checks_total{stage=\"prelogin\",result=\"hit\"}");
+        this.misses = plugin.getMetrics().counter("musketeers_whitelist_checks_total{stage=\"prelogin\",result=\"miss\"}");
+    }
+
+    /**
+     * Event handler for pre logins, checks the name of the player against the
+     * whitelist and rejects the connection if it is not whitelisted. When the
+     * index misses, the database is checked on another thread so the network
+     * thread is never blocked.
+     *
+     * @param event
+     *            The pre login event to be handled.
+     */
+    @EventHandler
+    public void onPreLogin(final PreLoginEvent event) {
+        // No need to handle cancelled events
+        if (event.isCancelled()) {
+            return;
+        }
+
+        // Is the whitelist enabled?
+        if (!this.plugin.getSettings().whitelistEnabled) {
+            return;
+        }
+
+        // Check the name against the whitelist index
+        final PendingConnection connection = event.getConnection();
+        if (this.plugin.getWhitelistHelper().isWhitelisted(connection.getName())) {
+            this.hits.increment();
+            return;
+        }
+        this.misses.increment();
+
+        // Reject repeated attempts without looking them up
+        final String address = connection.getAddress().getAddress().getHostAddress();
+        final String key = connection.getName().toLowerCase(Locale.ROOT) + "@" + address;
+        if (!this.plugin.getThrottleHelper().allow(key, address)) {
+            event.setCancelled(true);
+            event.setCancelReason(this.plugin.getMessageHelper().buildMessage("whitelist").toLegacyText());
+            this.plugin.getWhitelistHelper().suppressed();
+            return;
+        }
+
+        // Check the database before rejecting
+        event.registerIntent(this.plugin);
+        this.plugin.getProxy().getScheduler().runAsync(this.plugin, () -> {
+            try {
+                boolean isWhitelisted;
+                try {
+                    isWhitelisted = this.plugin.getWhitelistHelper().lookup(connection.getName());
+                } catch (final SQLException ex) {
+                    this.plugin.getLogger().severe("Failed to check whitelist!");
+                    ex.printStackTrace();
+                    isWhitelisted = false;
+                }
+
+                // Reject if not whitelisted
+                if (!isWhitelisted) {
+                    event.setCancelled(true);
+                    event.setCancelReason(this.plugin.getMessageHelper().buildMessage("whitelist").toLegacyText());
+                    this.plugin.getThrottleHelper().rejected(key);
+                    this.plugin.getWhitelistHelper().rejected(connection.getName(), connection.getAddress());
+                }
+            } finally {
+                event.completeIntent(this.plugin);
+            }
+        });
+    }
+
+}
@@ -1,13 +1,11 @@
 package nl.thefourmusketeers.listeners;
 
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.event.ServerConnectEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
 import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.helpers.MetricsHelper;
 
 /**
  * Server connect listener for whitelist functionality.
@@ -18,7 +16,22 @@ public class WhitelistServerConnectListener implements Listener {
     /**
      * The plugin instance.
      */
-    private final MusketeersPlugin plugin;
+    private final MusketeersPlugin      plugin;
+
+    /**
+     * The number of checks of players approved at login.
+     */
+    private final MetricsHelper.Counter approved;
+
+    /**
+     * The number of checks answered by the whitelist index.
+     */
+    private final MetricsHelper.Counter hits;
+
+    /**
+     * The number of checks missing the whitelist index.
+     */
+    private final MetricsHelper.Counter misses;
 
     /**
      * Constructs a new server connect listener.
@@ -28,11 +41,16 @@ public class WhitelistServerConnectListener implements Listener {
      */
     public WhitelistServerConnectListener(final MusketeersPlugin plugin) {
         this.plugin = plugin;
+        this.approved = plugin.getMetrics().counter("musketeers_whitelist_checks_total{stage=\"connect\",result=\"approved\"}");
+        this.hits = plugin.getMetrics().counter("musketeers_whitelist_checks_total{stage=\"connect\",result=\"hit\"}");
+        this.misses = plugin.getMetrics().counter("musketeers_whitelist_checks_total{stage=\"connect\",result=\"miss\"}");
     }
 
     /**
      * Event handler for server connects, checks the whitelist and blocks the
-     * connection if the player is not whitelisted.
+     * connection if the player is not whitelisted. Only players which were
+     * not approved when logging in, for example because the whitelist was
+     * disabled at the time, are checked.
      *
      * @param event
      *            The server connect event to be handled.
@@ -45,35 +63,27 @@ public class WhitelistServerConnectListener implements Listener {
         }
 
         // Is the whitelist enabled?
-        if (this.plugin.getConfig().getBoolean("whitelist.enabled", false)) {
+        if (this.plugin.getSettings().whitelistEnabled) {
             // Get the player
             final ProxiedPlayer p = event.getPlayer();
 
-            // Check the user against the database
-            boolean isWhitelisted = false;
-            try (
-                final PreparedStatement playerExists = this.plugin.getDatabase().prepareStatement(
-                    "SELECT COUNT(*) FROM players WHERE uuid = ? AND name = ?"
-                )
-            ) {
-                playerExists.setString(1, p.getUniqueId().toString());
-                playerExists.setString(2, p.getName());
-                isWhitelisted = playerExists.executeQuery().getBoolean(1);
-            } catch (final SQLException ex) {
-                this.plugin.getLogger().severe("Failed check database for player " + p.getDisplayName());
-                ex.printStackTrace();
+            // Players approved when logging in were checked already
+            if (this.plugin.getWhitelistHelper().isApproved(p.getUniqueId())) {
+                this.approved.increment();
+                return;
             }
 
+            // Check the user against the whitelist index
+            final boolean isWhitelisted = this.plugin.getWhitelistHelper().isWhitelisted(p.getUniqueId(), p.getName());
+
             // Disconnect if not whitelisted
-            if(!isWhitelisted) {
-                this.plugin.getLogger().info(event.getPlayer().getDisplayName() + " is not whitelisted, access blocked");
+            if(isWhitelisted) {
+                this.hits.increment();
+            } else {
+                this.misses.increment();
                 event.setCancelled(true);
                 event.getPlayer().disconnect(this.plugin.getMessageHelper().buildMessage("whitelist"));
-
-                // Notify admins?
-                if (this.plugin.getConfig().getBoolean("whitelist.notify-admins", false)) {
-                    this.plugin.getMessageHelper().messagePermission("whitelist.notify", "whitelist-notify", p.getDisplayName());
-                }
+                this.plugin.getWhitelistHelper().rejected(p.getName(), p.getAddress());
             }
         }
     }
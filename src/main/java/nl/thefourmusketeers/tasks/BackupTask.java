@@ -0,0 +1,106 @@
+package nl.thefourmusketeers.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.helpers.ConfigHelper;
+
+/**
+ * Task backing up the database while the proxy is running. The backup is
+ * copied from a read-only connection into a temporary file, which is only
+ * renamed once it is complete, and only the newest backups are kept.
+ *
+ * @author Daniël van de Giessen
+ */
+public class BackupTask implements Runnable {
+    /**
+     * The unit in which the backup interval should be interpreted.
+     */
+    public static final TimeUnit   TASK_INTERVAL_TIME_UNIT = TimeUnit.MINUTES;
+
+    /**
+     * The prefix of the names of the backup files.
+     */
+    private static final String    BACKUP_PREFIX           = "database-";
+
+    /**
+     * The suffix of the names of the backup files.
+     */
+    private static final String    BACKUP_SUFFIX           = ".sqlite";
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * The number of backups kept.
+     */
+    private final int              keep;
+
+    /**
+     * Constructs a new backup task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public BackupTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.keep = Math.max(1, plugin.getConfig().getInt("database-settings.backup.keep", 4));
+    }
+
+    /**
+     * Backs up the database and removes the oldest backups when the task is
+     * executed.
+     */
+    @Override
+    public void run() {
+        try {
+            final File folder = ConfigHelper.resolve(this.plugin, this.plugin.getConfig().getString("database-settings.backup.folder", "backups"));
+            if (folder == null) {
+                this.plugin.getLogger().severe("Backup folder must be inside the plugin folder!");
+                return;
+            }
+            Files.createDirectories(folder.toPath());
+
+            // Names sort by time, as the time is in UTC
+            final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            final File file = new File(folder, BACKUP_PREFIX + format.format(new Date()) + BACKUP_SUFFIX);
+            final File temporaryFile = new File(folder, file.getName() + ".tmp");
+
+            // Back up into the temporary file
+            final long start = System.currentTimeMillis();
+            Files.deleteIfExists(temporaryFile.toPath());
+            try {
+                this.plugin.getDatabase().backup(temporaryFile);
+            } catch (final SQLException ex) {
+                Files.deleteIfExists(temporaryFile.toPath());
+                throw ex;
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            this.plugin.getLogger().info("Backed up database to " + file.getName() + " in " + (System.currentTimeMillis() - start) + " ms");
+
+            // Remove the oldest backups
+            final File[] backups = folder.listFiles((dir, name) -> name.startsWith(BACKUP_PREFIX) && name.endsWith(BACKUP_SUFFIX));
+            if (backups != null && backups.length > this.keep) {
+                Arrays.sort(backups);
+                for (int i = 0; i < backups.length - this.keep; i++) {
+                    Files.delete(backups[i].toPath());
+                }
+            }
+        } catch (final IOException | SQLException ex) {
+            this.plugin.getLogger().severe("Failed to back up database!");
+            ex.printStackTrace();
+        }
+    }
+}
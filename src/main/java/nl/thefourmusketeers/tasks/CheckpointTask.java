@@ -0,0 +1,48 @@
+package nl.thefourmusketeers.tasks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Task checkpointing the write-ahead log of the database.
+ *
+ * @author Daniël van de Giessen
+ */
+public class CheckpointTask implements Runnable {
+    /**
+     * The unit in which the checkpoint interval should be interpreted.
+     */
+    public static final TimeUnit TASK_INTERVAL_TIME_UNIT = TimeUnit.SECONDS;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * Constructs a new checkpoint task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public CheckpointTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Runs a passive checkpoint and reports the size of the write-ahead log
+     * when the task is executed.
+     */
+    @Override
+    public void run() {
+        this.plugin.getDatabase().checkpoint().thenAccept(frames -> {
+            final long walSize = this.plugin.getDatabase().getWalSize();
+            if (frames[1] < frames[0]) {
+                this.plugin.getLogger().info("Checkpointed " + frames[1] + " of " + frames[0] + " log frames, write-ahead log is " + walSize / 1024 + " KiB");
+            } else {
+                this.plugin.getLogger().fine("Checkpointed " + frames[1] + " log frames, write-ahead log is " + walSize / 1024 + " KiB");
+            }
+        });
+    }
+}
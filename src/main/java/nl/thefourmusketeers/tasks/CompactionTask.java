@@ -0,0 +1,90 @@
+package nl.thefourmusketeers.tasks;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Task returning the free pages of the database to the file system, such as
+ * the pages freed by pruning old statistics. The pages are removed by small
+ * incremental vacuums, each queued separately so other writes are not held
+ * up.
+ *
+ * @author Daniël van de Giessen
+ */
+public class CompactionTask implements Runnable {
+    /**
+     * The unit in which the compaction interval should be interpreted.
+     */
+    public static final TimeUnit   TASK_INTERVAL_TIME_UNIT = TimeUnit.MINUTES;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * The maximum number of pages removed by a single step.
+     */
+    private final int              stepSize;
+
+    /**
+     * The number of free pages kept, as they are reused by later writes.
+     */
+    private final int              minimumFreePages;
+
+    /**
+     * Constructs a new compaction task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public CompactionTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.stepSize = Math.max(1, plugin.getConfig().getInt("database-settings.compaction.step-size", 64));
+        this.minimumFreePages = Math.max(0, plugin.getConfig().getInt("database-settings.compaction.minimum-free-pages", 256));
+    }
+
+    /**
+     * Removes the free pages above the minimum when the task is executed.
+     */
+    @Override
+    public void run() {
+        this.compact(0);
+    }
+
+    /**
+     * Removes a step of free pages, and queues the next step while there are
+     * too many free pages left.
+     *
+     * @param removed
+     *            The number of pages removed so far.
+     */
+    private void compact(final long removed) {
+        this.plugin.getDatabase().write("compact database", database -> {
+            final long freePages;
+            try (final ResultSet result = database.prepare("PRAGMA freelist_count").executeQuery()) {
+                freePages = result.next() ? result.getLong(1) : 0;
+            }
+            if (freePages <= this.minimumFreePages) {
+                return 0L;
+            }
+
+            // Executed directly, as every step of the prepared pragma would
+            // only remove a single page
+            final long pages = Math.min(this.stepSize, freePages - this.minimumFreePages);
+            try (final Statement statement = database.getConnection().createStatement()) {
+                statement.executeUpdate("PRAGMA incremental_vacuum(" + pages + ")");
+            }
+            return pages;
+        }).thenAccept(pages -> {
+            if (pages > 0) {
+                this.compact(removed + pages);
+            } else if (removed > 0) {
+                this.plugin.getLogger().info("Compacted database, removed " + removed + " free pages");
+            }
+        });
+    }
+}
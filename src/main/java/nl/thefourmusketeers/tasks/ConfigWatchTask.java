@@ -0,0 +1,119 @@
+package nl.thefourmusketeers.tasks;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.helpers.ConfigHelper;
+
+/**
+ * Task watching the data folder, reloading the configuration whenever the
+ * configuration file changes. Runs until it is closed.
+ *
+ * @author Daniël van de Giessen
+ */
+public class ConfigWatchTask implements Runnable, AutoCloseable {
+    /**
+     * The time to wait for further changes before reloading, in milliseconds,
+     * so an editor saving the file in several steps causes a single reload.
+     */
+    private static final long      SETTLE_TIME = 500;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * The watch service of the data folder.
+     */
+    private final WatchService     watchService;
+
+    /**
+     * Constructs a new config watch task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     * @throws IOException
+     *             When the data folder could not be watched.
+     */
+    public ConfigWatchTask(final MusketeersPlugin plugin) throws IOException {
+        this.plugin = plugin;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        plugin.getDataFolder().toPath().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Waits for changes of the configuration file and reloads it. Changes of
+     * the other files in the data folder, such as the database, are ignored,
+     * so they never delay the reload.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                // Wait for a change of the configuration file
+                if (!this.isConfigChange(this.watchService.take())) {
+                    continue;
+                }
+
+                // Wait for the changes of the configuration file to settle
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_TIME);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    final WatchKey key = this.watchService.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    if (this.isConfigChange(key)) {
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_TIME);
+                    }
+                }
+
+                try {
+                    this.plugin.reloadConfig();
+                    this.plugin.getLogger().info("Reloaded configuration file");
+                } catch (final Exception ex) {
+                    this.plugin.getLogger().severe("Failed to reload configuration file!");
+                    ex.printStackTrace();
+                }
+            }
+        } catch (final ClosedWatchServiceException | InterruptedException ex) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Takes the events of a watch key and resets it.
+     *
+     * @return Whether any of the events is a change of the configuration file.
+     */
+    private boolean isConfigChange(final WatchKey key) {
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.context() instanceof Path && ((Path) event.context()).toString().equals(ConfigHelper.CONFIG_FILENAME);
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Stops watching the data folder.
+     */
+    @Override
+    public void close() {
+        try {
+            this.watchService.close();
+        } catch (final IOException ex) {
+            this.plugin.getLogger().severe("Failed to stop watching configuration file!");
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nl.thefourmusketeers.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Task exporting the metrics of the plugin to a file in the Prometheus text
+ * format, to be picked up by the textfile collector of the node exporter.
+ * The file is replaced atomically, so it is never read half-written.
+ *
+ * @author Daniël van de Giessen
+ */
+public class MetricsExportTask implements Runnable {
+    /**
+     * The unit in which the export interval should be interpreted.
+     */
+    public static final TimeUnit   TASK_INTERVAL_TIME_UNIT = TimeUnit.SECONDS;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * The file the metrics are exported to.
+     */
+    private final File             file;
+
+    /**
+     * The file the metrics are written to before replacing the export.
+     */
+    private final File             temporaryFile;
+
+    /**
+     * Constructs a new metrics export task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public MetricsExportTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), plugin.getConfig().getString("metrics.export-file", "metrics.prom"));
+        this.temporaryFile = new File(this.file.getPath() + ".tmp");
+    }
+
+    /**
+     * Exports the metrics when the task is executed.
+     */
+    @Override
+    public void run() {
+        try {
+            try (final Writer writer = Files.newBufferedWriter(this.temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+                this.plugin.getMetrics().writePrometheus(writer);
+            }
+            Files.move(this.temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException ex) {
+            this.plugin.getLogger().severe("Failed to export metrics!");
+            ex.printStackTrace();
+        }
+    }
+}
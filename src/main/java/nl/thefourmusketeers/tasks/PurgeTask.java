@@ -0,0 +1,268 @@
+package nl.thefourmusketeers.tasks;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Task purging the players removed from the whitelist. The statistics of the
+ * removed players are archived or deleted and their playtime is deleted in
+ * small batches first, so the final removal of the player doesn't cascade
+ * into a large delete.
+ *
+ * @author Daniël van de Giessen
+ */
+public class PurgeTask implements Runnable {
+    /**
+     * The interval between subsequent executions of this task.
+     */
+    public static final int        TASK_INTERVAL           = 10;
+
+    /**
+     * The unit in which TASK_INTERVAL should be interpreted.
+     */
+    public static final TimeUnit   TASK_INTERVAL_TIME_UNIT = TimeUnit.MINUTES;
+
+    /**
+     * The number of seconds in a day.
+     */
+    private static final long      DAY                     = 24 * 60 * 60;
+
+    /**
+     * The selection of the next purged player after a UUID.
+     */
+    private static final String    PURGED_PLAYER           = "SELECT uuid FROM players WHERE removedTime < ? AND uuid > ? ORDER BY uuid LIMIT 1";
+
+    /**
+     * The selection of the last session of a batch of statistics of a player,
+     * continuing after a connect time and id.
+     */
+    private static final String    PURGED_STATISTICS       = "SELECT connectTime, id FROM (SELECT connectTime, id FROM playerStatistics "
+                                                             + "WHERE player = ? AND connectTime >= ? AND (connectTime > ? OR id > ?) ORDER BY connectTime, id LIMIT ?) "
+                                                             + "ORDER BY connectTime DESC, id DESC LIMIT 1";
+
+    /**
+     * The condition selecting the statistics of a batch, between the previous
+     * and the last session of the batch.
+     */
+    private static final String    BATCH                   = "s.player = ? AND s.connectTime >= ? AND (s.connectTime > ? OR s.id > ?) "
+                                                             + "AND s.connectTime <= ? AND (s.connectTime < ? OR s.id <= ?)";
+
+    /**
+     * The selection of the playtime of the purged players.
+     */
+    private static final String    PURGED_PLAYTIME         = "SELECT t.rowid FROM players p CROSS JOIN playerPlaytime t ON t.player = p.uuid WHERE p.removedTime < ? LIMIT ?";
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * The number of days a removed player is kept before being purged.
+     */
+    private final int              delay;
+
+    /**
+     * Whether the statistics of purged players are archived instead of
+     * deleted.
+     */
+    private final boolean          archive;
+
+    /**
+     * The maximum number of rows removed by a single batch.
+     */
+    private final int              batchSize;
+
+    /**
+     * Constructs a new purge task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public PurgeTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+        this.delay = Math.max(0, plugin.getConfig().getInt("whitelist.purge.delay", 7));
+        this.archive = !plugin.getConfig().getString("whitelist.purge.history", "archive").equalsIgnoreCase("delete");
+        this.batchSize = Math.max(1, plugin.getConfig().getInt("whitelist.purge.batch-size", 500));
+    }
+
+    /**
+     * Purges the players removed longer than the delay ago when the task is
+     * executed.
+     */
+    @Override
+    public void run() {
+        this.purgeStatistics(System.currentTimeMillis() / 1000 - this.delay * DAY, new Cursor("", Long.MIN_VALUE, Long.MIN_VALUE));
+    }
+
+    /**
+     * Archives or deletes a batch of statistics of the purged players,
+     * queueing each batch separately so other writes are not held up, and
+     * purges the players themselves once all their statistics are gone. The
+     * purged players are handled one at a time, and every batch continues
+     * after the last session of the previous batch, so each batch only reads
+     * its own rows from the index of the statistics of the player.
+     *
+     * @param before
+     *            The time before which removed players are purged.
+     * @param cursor
+     *            The last session of the previous batch.
+     */
+    private void purgeStatistics(final long before, final Cursor cursor) {
+        this.plugin.getDatabase().write("purge statistics of removed players", database -> {
+            // Select the batch once, as the statistics of the player up to
+            // its last session, so the archive and the delete see exactly
+            // the same rows, moving on to the next purged player when the
+            // current player has none left
+            final PreparedStatement playerSelect = database.prepare(PURGED_PLAYER);
+            final PreparedStatement lastSessionSelect = database.prepare(PURGED_STATISTICS);
+            Cursor first = cursor;
+            Cursor last = null;
+            while (true) {
+                lastSessionSelect.setString(1, first.player);
+                lastSessionSelect.setLong(2, first.connectTime);
+                lastSessionSelect.setLong(3, first.connectTime);
+                lastSessionSelect.setLong(4, first.id);
+                lastSessionSelect.setInt(5, this.batchSize);
+                try (final ResultSet result = lastSessionSelect.executeQuery()) {
+                    if (result.next()) {
+                        last = new Cursor(first.player, result.getLong(1), result.getLong(2));
+                        break;
+                    }
+                }
+                playerSelect.setLong(1, before);
+                playerSelect.setString(2, first.player);
+                try (final ResultSet result = playerSelect.executeQuery()) {
+                    if (!result.next()) {
+                        return null;
+                    }
+                    first = new Cursor(result.getString(1), Long.MIN_VALUE, Long.MIN_VALUE);
+                }
+            }
+
+            if (this.archive) {
+                final PreparedStatement statisticsArchive = database.prepare(
+                    "INSERT INTO playerStatisticsArchive (player, name, connectTime, disconnectTime, server) "
+                    + "SELECT s.player, p.name, s.connectTime, s.disconnectTime, s.server FROM players p CROSS JOIN playerStatistics s ON s.player = p.uuid "
+                    + "WHERE p.uuid = ? AND p.removedTime < ? AND " + BATCH + " ORDER BY s.connectTime, s.id"
+                );
+                statisticsArchive.setString(1, first.player);
+                statisticsArchive.setLong(2, before);
+                setBatch(statisticsArchive, 3, first, last);
+                statisticsArchive.execute();
+            }
+            final PreparedStatement statisticsDelete = database.prepare(
+                "DELETE FROM playerStatistics WHERE id IN (SELECT s.id FROM players p CROSS JOIN playerStatistics s ON s.player = p.uuid "
+                + "WHERE p.uuid = ? AND p.removedTime < ? AND " + BATCH + ")"
+            );
+            statisticsDelete.setString(1, first.player);
+            statisticsDelete.setLong(2, before);
+            setBatch(statisticsDelete, 3, first, last);
+            statisticsDelete.execute();
+            return last;
+        }).thenAccept(last -> {
+            if (last != null) {
+                this.purgeStatistics(before, last);
+            } else {
+                this.purgePlaytime(before);
+            }
+        });
+    }
+
+    /**
+     * Sets the parameters of the condition selecting the statistics of a
+     * batch, starting at the given index.
+     */
+    private static void setBatch(final PreparedStatement statement, final int index, final Cursor first, final Cursor last) throws SQLException {
+        statement.setString(index, first.player);
+        statement.setLong(index + 1, first.connectTime);
+        statement.setLong(index + 2, first.connectTime);
+        statement.setLong(index + 3, first.id);
+        statement.setLong(index + 4, last.connectTime);
+        statement.setLong(index + 5, last.connectTime);
+        statement.setLong(index + 6, last.id);
+    }
+
+    /**
+     * Deletes a batch of the playtime of the purged players, which can always
+     * be deleted as it is derived from their statistics.
+     *
+     * @param before
+     *            The time before which removed players are purged.
+     */
+    private void purgePlaytime(final long before) {
+        this.plugin.getDatabase().write("purge playtime of removed players", database -> {
+            final PreparedStatement playtimeDelete = database.prepare(
+                "DELETE FROM playerPlaytime WHERE rowid IN (" + PURGED_PLAYTIME + ")"
+            );
+            playtimeDelete.setLong(1, before);
+            playtimeDelete.setInt(2, this.batchSize);
+            return playtimeDelete.executeUpdate();
+        }).thenAccept(removed -> {
+            if (removed >= this.batchSize) {
+                this.purgePlaytime(before);
+            } else {
+                this.purgePlayers(before);
+            }
+        });
+    }
+
+    /**
+     * Deletes a batch of the purged players which have no statistics or
+     * playtime left.
+     *
+     * @param before
+     *            The time before which removed players are purged.
+     */
+    private void purgePlayers(final long before) {
+        this.plugin.getDatabase().write("purge removed players", database -> {
+            final PreparedStatement playerDelete = database.prepare(
+                "DELETE FROM players WHERE rowid IN (SELECT rowid FROM players p WHERE removedTime < ? "
+                + "AND NOT EXISTS (SELECT 1 FROM playerStatistics s WHERE s.player = p.uuid) "
+                + "AND NOT EXISTS (SELECT 1 FROM playerPlaytime t WHERE t.player = p.uuid) LIMIT ?)"
+            );
+            playerDelete.setLong(1, before);
+            playerDelete.setInt(2, this.batchSize);
+            return playerDelete.executeUpdate();
+        }).thenAccept(removed -> {
+            if (removed >= this.batchSize) {
+                this.purgePlayers(before);
+            } else if (removed > 0) {
+                this.plugin.getLogger().info("Purged removed players from the whitelist");
+            }
+        });
+    }
+
+    /**
+     * A position in the statistics of the purged players.
+     */
+    private static final class Cursor {
+        /**
+         * The UUID of the player.
+         */
+        private final String player;
+
+        /**
+         * The connect time of the session.
+         */
+        private final long   connectTime;
+
+        /**
+         * The id of the session.
+         */
+        private final long   id;
+
+        /**
+         * Constructs a new cursor.
+         */
+        private Cursor(final String player, final long connectTime, final long id) {
+            this.player = player;
+            this.connectTime = connectTime;
+            this.id = id;
+        }
+    }
+}
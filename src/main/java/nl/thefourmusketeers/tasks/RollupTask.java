@@ -0,0 +1,147 @@
+package nl.thefourmusketeers.tasks;
+
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+import net.md_5.bungee.config.Configuration;
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Task rolling up the server statistics into hourly and daily tiers, and
+ * pruning each tier according to its retention.
+ *
+ * @author Daniël van de Giessen
+ */
+public class RollupTask implements Runnable {
+    /**
+     * The interval between subsequent executions of this task.
+     */
+    public static final int        TASK_INTERVAL           = 5;
+
+    /**
+     * The unit in which TASK_INTERVAL should be interpreted.
+     */
+    public static final TimeUnit   TASK_INTERVAL_TIME_UNIT = TimeUnit.MINUTES;
+
+    /**
+     * The time a period should be over before it is rolled up, in seconds,
+     * so the finer tier has been completely written.
+     */
+    private static final long      ROLLUP_DELAY            = 15 * 60;
+
+    /**
+     * The number of seconds in a day.
+     */
+    private static final long      DAY                     = 24 * 60 * 60;
+
+    /**
+     * The tables of the tiers, from the finest to the coarsest.
+     */
+    private static final String[]  TIERS                   = { "serverStatistics", "serverStatisticsMinute", "serverStatisticsHour", "serverStatisticsDay" };
+
+    /**
+     * The names of the tiers in the retention configuration.
+     */
+    private static final String[]  TIER_NAMES              = { "raw", "minute", "hour", "day" };
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin plugin;
+
+    /**
+     * The retention of each tier in days, or 0 to keep everything.
+     */
+    private final int[]            retention               = new int[TIERS.length];
+
+    /**
+     * The maximum number of rows removed by a single prune.
+     */
+    private final int              pruneBatchSize;
+
+    /**
+     * Constructs a new rollup task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public RollupTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+
+        // Settings
+        final Configuration config = plugin.getConfig().getSection("statistics.retention");
+        final int[] defaults = { 7, 30, 365, 0 };
+        for (int i = 0; i < TIERS.length; i++) {
+            this.retention[i] = Math.max(0, config.getInt(TIER_NAMES[i], defaults[i]));
+        }
+        this.pruneBatchSize = Math.max(1, plugin.getConfig().getInt("statistics.prune-batch-size", 1000));
+    }
+
+    /**
+     * Rolls up the finished hours and days and prunes expired statistics when
+     * the task is executed.
+     */
+    @Override
+    public void run() {
+        final long end = System.currentTimeMillis() / 1000 - ROLLUP_DELAY;
+
+        // Roll up the hours first, so the days include the latest hour, each
+        // server continuing after its own latest rollup so the statistics of
+        // a server which are written late or which was added later are never
+        // skipped
+        this.plugin.getDatabase().write("roll up server statistics", database -> {
+            final PreparedStatement hourRollup = database.prepare(
+                "INSERT OR REPLACE INTO serverStatisticsHour (server, time, minPlayerCount, maxPlayerCount, avgPlayerCount) "
+                + "SELECT m.server, m.time / 3600 * 3600, MIN(m.minPlayerCount), MAX(m.maxPlayerCount), AVG(m.avgPlayerCount) "
+                + "FROM servers s CROSS JOIN serverStatisticsMinute m ON m.server = s.name "
+                + "WHERE m.time >= COALESCE((SELECT MAX(h.time) + 3600 FROM serverStatisticsHour h WHERE h.server = s.name), 0) AND m.time < ? "
+                + "GROUP BY m.server, m.time / 3600"
+            );
+            hourRollup.setLong(1, end / 3600 * 3600);
+            hourRollup.execute();
+
+            final PreparedStatement dayRollup = database.prepare(
+                "INSERT OR REPLACE INTO serverStatisticsDay (server, time, minPlayerCount, maxPlayerCount, avgPlayerCount) "
+                + "SELECT h.server, h.time / 86400 * 86400, MIN(h.minPlayerCount), MAX(h.maxPlayerCount), AVG(h.avgPlayerCount) "
+                + "FROM servers s CROSS JOIN serverStatisticsHour h ON h.server = s.name "
+                + "WHERE h.time >= COALESCE((SELECT MAX(d.time) + 86400 FROM serverStatisticsDay d WHERE d.server = s.name), 0) AND h.time < ? "
+                + "GROUP BY h.server, h.time / 86400"
+            );
+            dayRollup.setLong(1, end / DAY * DAY);
+            dayRollup.execute();
+            return null;
+        });
+
+        // Prune each tier
+        final long now = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < TIERS.length; i++) {
+            if (this.retention[i] > 0) {
+                this.prune(TIERS[i], now - this.retention[i] * DAY);
+            }
+        }
+    }
+
+    /**
+     * Removes the statistics older than the given time in small batches,
+     * queueing each batch separately so other writes are not held up.
+     *
+     * @param table
+     *            The table to be pruned.
+     * @param before
+     *            The time before which statistics are removed.
+     */
+    private void prune(final String table, final long before) {
+        this.plugin.getDatabase().write("prune " + table, database -> {
+            final PreparedStatement prune = database.prepare(
+                "DELETE FROM " + table + " WHERE rowid IN (SELECT rowid FROM " + table + " WHERE time < ? LIMIT ?)"
+            );
+            prune.setLong(1, before);
+            prune.setInt(2, this.pruneBatchSize);
+            return prune.executeUpdate();
+        }).thenAccept(removed -> {
+            if (removed >= this.pruneBatchSize) {
+                this.prune(table, before);
+            }
+        });
+    }
+}
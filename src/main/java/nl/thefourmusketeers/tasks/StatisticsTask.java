@@ -3,87 +3,390 @@ package nl.thefourmusketeers.tasks;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import net.md_5.bungee.api.config.ServerInfo;
 import nl.thefourmusketeers.MusketeersPlugin;
+import nl.thefourmusketeers.api.PopulationSnapshot;
+import nl.thefourmusketeers.helpers.MetricsHelper;
 
 /**
  * Task supporting statistics functionality.
  *
+ * The player count of every server is sampled from the population snapshot and
+ * kept in memory as runs of equal player counts. A run is only written to the
+ * database when the player count changes or when the flush interval passes,
+ * with all servers written in a single transaction. The samples are also
+ * aggregated per minute, which is the finest tier of the rollups maintained by
+ * the RollupTask. Every write also records the time each server was last seen
+ * as its heartbeat, if it changed since the previous write, which is used to
+ * close the sessions left open when the proxy stops unexpectedly. A row whose
+ * earlier write failed is inserted again by the next write of its run.
+ *
  * @author Daniël van de Giessen
  */
 public class StatisticsTask implements Runnable {
     /**
-     * The interval between subsequent executions of this task.
+     * The default interval between subsequent executions of this task.
      */
-    public static final int TASK_INTERVAL = 30;
+    public static final int               TASK_INTERVAL           = 30;
 
     /**
      * The unit in which TASK_INTERVAL should be interpreted.
      */
-    public static final TimeUnit TASK_INTERVAL_TIME_UNIT = TimeUnit.SECONDS;
+    public static final TimeUnit          TASK_INTERVAL_TIME_UNIT = TimeUnit.SECONDS;
+
+    /**
+     * The default interval between writes of an unchanged run, in seconds.
+     */
+    public static final int               FLUSH_INTERVAL          = 300;
 
     /**
      * The plugin instance.
      */
-    private final MusketeersPlugin plugin;
+    private final MusketeersPlugin        plugin;
+
+    /**
+     * The interval between subsequent executions of this task.
+     */
+    private final int                     interval;
+
+    /**
+     * The interval between writes of an unchanged run, in seconds.
+     */
+    private final int                     flushInterval;
+
+    /**
+     * The current run of each server, indexed by server name.
+     */
+    private final Map<String, Run>        runs                    = new HashMap<String, Run>();
+
+    /**
+     * The current minute of each server, indexed by server name.
+     */
+    private final Map<String, Minute>     minutes                 = new HashMap<String, Minute>();
+
+    /**
+     * The last written heartbeat of each server, indexed by server name.
+     */
+    private final Map<String, Long>       heartbeats              = new HashMap<String, Long>();
+
+    /**
+     * The duration of a tick.
+     */
+    private final MetricsHelper.Histogram tickDuration;
 
     /**
-     * Constructs a new statistics task.
+     * Constructs a new statistics task, continuing the runs stored in the
+     * database.
      *
      * @param plugin
      *            The plugin instance.
+     * @throws SQLException
+     *             When the latest runs could not be loaded.
      */
-    public StatisticsTask(final MusketeersPlugin plugin) {
+    public StatisticsTask(final MusketeersPlugin plugin) throws SQLException {
         this.plugin = plugin;
+        this.interval = Math.max(1, plugin.getConfig().getInt("statistics.sample-interval", TASK_INTERVAL));
+        this.flushInterval = Math.max(this.interval, plugin.getConfig().getInt("statistics.sample-flush-interval", FLUSH_INTERVAL));
+        this.tickDuration = plugin.getMetrics().histogram("musketeers_statistics_tick_seconds");
+
+        // Load the latest run of each server
+        plugin.getDatabase().read(database -> {
+            try (
+                final ResultSet results = database.prepare(
+                    "SELECT server, MAX(time) AS time, playerCount FROM serverStatistics GROUP BY server"
+                ).executeQuery()
+            ) {
+                while (results.next()) {
+                    final long time = results.getLong("time");
+                    this.runs.put(results.getString("server"), new Run(results.getInt("playerCount"), time, time));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return The interval between subsequent executions of this task.
+     */
+    public int getInterval() {
+        return this.interval;
     }
 
     /**
      * Updates the server statistics when the task is executed.
      */
     @Override
-    public void run() {
-        // Prepared statements
-        try (
-            final PreparedStatement serverStatisticsLatest = this.plugin.getDatabase().prepareStatement(
-                "SELECT time FROM serverStatistics WHERE server = ? AND playerCount = ? AND time = (SELECT MAX(time) FROM serverStatistics WHERE server = ?)"
+    public synchronized void run() {
+        final long start = System.nanoTime();
+        final long now = System.currentTimeMillis() / 1000;
+        final List<RowWrite> writes = new ArrayList<RowWrite>();
+        final List<Minute> minuteWrites = new ArrayList<Minute>();
+        final PopulationSnapshot population = this.plugin.getPopulationHelper().getSnapshot();
+
+        // For each server
+        for(final ServerInfo server : this.plugin.getProxy().getServers().values()) {
+            // Server details
+            final String serverName = server.getName();
+            final int playerCount = population.getPlayerCount(serverName);
+
+            // Aggregate the sample in the minute it belongs to
+            final long minuteTime = now / 60 * 60;
+            Minute minute = this.minutes.get(serverName);
+            if(minute != null && minute.time != minuteTime) {
+                minuteWrites.add(minute);
+                minute = null;
+            }
+            if(minute == null) {
+                minute = new Minute(serverName, minuteTime);
+                this.minutes.put(serverName, minute);
+            }
+            minute.add(playerCount);
+
+            // Continue the current run if the player count is unchanged and
+            // the run was seen in the previous sample
+            final Run run = this.runs.get(serverName);
+            if(run != null && run.playerCount == playerCount && now - run.lastSeen <= 2 * this.interval) {
+                run.lastSeen = now;
+                if(now - run.rowTime >= this.flushInterval) {
+                    writes.add(new RowWrite(serverName, run.rowTime, now, playerCount));
+                    run.rowTime = now;
+                }
+                continue;
+            }
+
+            // Finish the previous run
+            if(run != null && run.lastSeen > run.rowTime) {
+                writes.add(new RowWrite(serverName, run.rowTime, run.lastSeen, run.playerCount));
+            }
+
+            // Start a new run
+            this.runs.put(serverName, new Run(playerCount, now, now));
+            writes.add(new RowWrite(serverName, 0, now, playerCount));
+        }
+
+        this.write(writes, minuteWrites);
+        this.tickDuration.recordSince(start);
+    }
+
+    /**
+     * Writes the unwritten part of every run, used when the plugin is
+     * disabled.
+     */
+    public synchronized void flush() {
+        final List<RowWrite> writes = new ArrayList<RowWrite>();
+        for(final Map.Entry<String, Run> entry : this.runs.entrySet()) {
+            final Run run = entry.getValue();
+            if(run.lastSeen > run.rowTime) {
+                writes.add(new RowWrite(entry.getKey(), run.rowTime, run.lastSeen, run.playerCount));
+                run.rowTime = run.lastSeen;
+            }
+        }
+        final List<Minute> minuteWrites = new ArrayList<Minute>(this.minutes.values());
+        this.minutes.clear();
+        this.write(writes, minuteWrites);
+    }
+
+    /**
+     * Writes the rows in a single transaction.
+     *
+     * @param writes
+     *            The rows to be written.
+     * @param minuteWrites
+     *            The finished minutes to be written.
+     */
+    private void write(final List<RowWrite> writes, final List<Minute> minuteWrites) {
+        if(writes.isEmpty() && minuteWrites.isEmpty()) {
+            return;
+        }
+
+        // Only the heartbeats which changed since the last write
+        final Map<String, Long> heartbeats = new HashMap<String, Long>();
+        for(final Map.Entry<String, Run> entry : this.runs.entrySet()) {
+            final Long lastSeen = entry.getValue().lastSeen;
+            if(!lastSeen.equals(this.heartbeats.put(entry.getKey(), lastSeen))) {
+                heartbeats.put(entry.getKey(), lastSeen);
+            }
+        }
+        this.plugin.getDatabase().write("write server statistics", database -> {
+            // Prepared statements
+            final PreparedStatement serverStatisticsInsert = database.prepare(
+                "INSERT OR REPLACE INTO serverStatistics (server, time, playerCount) VALUES (?, ?, ?)"
+            );
+            final PreparedStatement serverStatisticsUpdate = database.prepare(
+                "UPDATE serverStatistics SET time = ? WHERE server = ? AND time = ?"
             );
-            final PreparedStatement serverStatisticsInsert = this.plugin.getDatabase().prepareStatement(
-                "INSERT INTO serverStatistics (server, time, playerCount) VALUES (?, strftime('%s', 'now'), ?)"
+            final PreparedStatement serverStatisticsMinuteInsert = database.prepare(
+                "INSERT OR REPLACE INTO serverStatisticsMinute (server, time, minPlayerCount, maxPlayerCount, avgPlayerCount) VALUES (?, ?, ?, ?, ?)"
             );
-            final PreparedStatement serverStatisticsUpdate = this.plugin.getDatabase().prepareStatement(
-                "UPDATE serverStatistics SET time = strftime('%s', 'now') WHERE server = ? AND time = ?"
+            final PreparedStatement serverHeartbeatInsert = database.prepare(
+                "INSERT OR REPLACE INTO serverHeartbeats (server, time) VALUES (?, ?)"
             );
-        ) {
-            // For each server
-            for(final ServerInfo server : this.plugin.getProxy().getServers().values()) {
-                // Server details
-                final String serverName = server.getName();
-                final int playerCount = server.getPlayers().size();
-
-                // Check if a suitable row exists
-                serverStatisticsLatest.setString(1, serverName);
-                serverStatisticsLatest.setInt(2, playerCount);
-                serverStatisticsLatest.setString(3, serverName);
-
-                // Existing timestamp
-                final ResultSet latestTimestamp = serverStatisticsLatest.executeQuery();
-                if(latestTimestamp.isClosed()) {
+
+            for(final RowWrite write : writes) {
+                if(write.previousTime == 0) {
                     // We insert a new row
-                    serverStatisticsInsert.setString(1, serverName);
-                    serverStatisticsInsert.setInt(2, playerCount);
+                    serverStatisticsInsert.setString(1, write.server);
+                    serverStatisticsInsert.setLong(2, write.time);
+                    serverStatisticsInsert.setInt(3, write.playerCount);
                     serverStatisticsInsert.execute();
                 } else {
-                    // We update the existing row
-                    serverStatisticsUpdate.setString(1, serverName);
-                    serverStatisticsUpdate.setInt(2, latestTimestamp.getInt(1));
-                    serverStatisticsUpdate.execute();
+                    // We update the existing row, or insert it again if an
+                    // earlier write of the row failed
+                    serverStatisticsUpdate.setLong(1, write.time);
+                    serverStatisticsUpdate.setString(2, write.server);
+                    serverStatisticsUpdate.setLong(3, write.previousTime);
+                    if(serverStatisticsUpdate.executeUpdate() == 0) {
+                        serverStatisticsInsert.setString(1, write.server);
+                        serverStatisticsInsert.setLong(2, write.time);
+                        serverStatisticsInsert.setInt(3, write.playerCount);
+                        serverStatisticsInsert.execute();
+                    }
+                }
+            }
+            for(final Minute minute : minuteWrites) {
+                serverStatisticsMinuteInsert.setString(1, minute.server);
+                serverStatisticsMinuteInsert.setLong(2, minute.time);
+                serverStatisticsMinuteInsert.setInt(3, minute.minPlayerCount);
+                serverStatisticsMinuteInsert.setInt(4, minute.maxPlayerCount);
+                serverStatisticsMinuteInsert.setDouble(5, (double) minute.sumPlayerCount / minute.samples);
+                serverStatisticsMinuteInsert.execute();
+            }
+            for(final Map.Entry<String, Long> heartbeat : heartbeats.entrySet()) {
+                serverHeartbeatInsert.setString(1, heartbeat.getKey());
+                serverHeartbeatInsert.setLong(2, heartbeat.getValue());
+                serverHeartbeatInsert.execute();
+            }
+            return null;
+        }).whenComplete((result, ex) -> {
+            // Write all heartbeats again after a failed write
+            if(ex != null) {
+                synchronized(this) {
+                    this.heartbeats.clear();
                 }
             }
-        } catch (final SQLException ex) {
-            this.plugin.getLogger().severe("Failed to write server statistics!");
-            ex.printStackTrace();
+        });
+    }
+
+    /**
+     * A run of equal player counts of a server.
+     */
+    private static final class Run {
+        /**
+         * The player count during the run.
+         */
+        private final int playerCount;
+
+        /**
+         * The time the run was last seen.
+         */
+        private long      lastSeen;
+
+        /**
+         * The time stored in the database row of the run.
+         */
+        private long      rowTime;
+
+        /**
+         * Constructs a new run.
+         */
+        private Run(final int playerCount, final long lastSeen, final long rowTime) {
+            this.playerCount = playerCount;
+            this.lastSeen = lastSeen;
+            this.rowTime = rowTime;
+        }
+    }
+
+    /**
+     * A row of the server statistics to be written.
+     */
+    private static final class RowWrite {
+        /**
+         * The name of the server.
+         */
+        private final String server;
+
+        /**
+         * The time currently stored in the row, or 0 for a new row.
+         */
+        private final long   previousTime;
+
+        /**
+         * The time to be stored in the row.
+         */
+        private final long   time;
+
+        /**
+         * The player count of the row.
+         */
+        private final int    playerCount;
+
+        /**
+         * Constructs a new row write.
+         */
+        private RowWrite(final String server, final long previousTime, final long time, final int playerCount) {
+            this.server = server;
+            this.previousTime = previousTime;
+            this.time = time;
+            this.playerCount = playerCount;
+        }
+    }
+
+    /**
+     * The samples of a server within a single minute.
+     */
+    private static final class Minute {
+        /**
+         * The name of the server.
+         */
+        private final String server;
+
+        /**
+         * The start of the minute.
+         */
+        private final long   time;
+
+        /**
+         * The lowest sampled player count.
+         */
+        private int          minPlayerCount = Integer.MAX_VALUE;
+
+        /**
+         * The highest sampled player count.
+         */
+        private int          maxPlayerCount = 0;
+
+        /**
+         * The sum of the sampled player counts.
+         */
+        private long         sumPlayerCount = 0;
+
+        /**
+         * The number of samples.
+         */
+        private int          samples        = 0;
+
+        /**
+         * Constructs a new minute.
+         */
+        private Minute(final String server, final long time) {
+            this.server = server;
+            this.time = time;
+        }
+
+        /**
+         * Adds a sample to the minute.
+         */
+        private void add(final int playerCount) {
+            this.minPlayerCount = Math.min(this.minPlayerCount, playerCount);
+            this.maxPlayerCount = Math.max(this.maxPlayerCount, playerCount);
+            this.sumPlayerCount += playerCount;
+            this.samples++;
         }
     }
 }
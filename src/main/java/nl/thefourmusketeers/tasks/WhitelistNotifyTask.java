@@ -0,0 +1,170 @@
+package nl.thefourmusketeers.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import nl.thefourmusketeers.MusketeersPlugin;
+
+/**
+ * Task collecting rejected join attempts and notifying the admins with a
+ * single summary per notification window, so a flood of attempts doesn't
+ * flood their chat.
+ *
+ * @author Daniël van de Giessen
+ */
+public class WhitelistNotifyTask implements Runnable {
+    /**
+     * The unit in which the notification window should be interpreted.
+     */
+    public static final TimeUnit     TASK_INTERVAL_TIME_UNIT = TimeUnit.SECONDS;
+
+    /**
+     * The maximum number of distinct names and addresses counted per window,
+     * any others are only counted in total.
+     */
+    private static final int         MAX_TRACKED             = 1000;
+
+    /**
+     * The maximum number of names and addresses listed in a summary.
+     */
+    private static final int         MAX_LISTED              = 5;
+
+    /**
+     * The plugin instance.
+     */
+    private final MusketeersPlugin   plugin;
+
+    /**
+     * The number of attempts per name in the current window.
+     */
+    private final Map<String, int[]> names                   = new HashMap<String, int[]>();
+
+    /**
+     * The number of attempts per address in the current window.
+     */
+    private final Map<String, int[]> addresses               = new HashMap<String, int[]>();
+
+    /**
+     * The number of attempts in the current window.
+     */
+    private int                      attempts                = 0;
+
+    /**
+     * The number of suppressed attempts in the current window.
+     */
+    private int                      suppressed              = 0;
+
+    /**
+     * Constructs a new whitelist notify task.
+     *
+     * @param plugin
+     *            The plugin instance.
+     */
+    public WhitelistNotifyTask(final MusketeersPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Records a rejected join attempt.
+     *
+     * @param name
+     *            The name of the rejected player.
+     * @param address
+     *            The address the attempt was made from.
+     */
+    public synchronized void reject(final String name, final String address) {
+        this.attempts++;
+        count(this.names, name);
+        count(this.addresses, address);
+    }
+
+    /**
+     * Records a suppressed join attempt, which is only counted.
+     */
+    public synchronized void suppress() {
+        this.suppressed++;
+    }
+
+    /**
+     * Sends the summary of the current window to the admins, if there were
+     * any rejected or suppressed attempts.
+     */
+    @Override
+    public void run() {
+        final int attempts;
+        final int suppressed;
+        final String names;
+        final String addresses;
+        synchronized (this) {
+            if (this.attempts == 0 && this.suppressed == 0) {
+                return;
+            }
+            attempts = this.attempts;
+            suppressed = this.suppressed;
+            names = summarize(this.names, attempts);
+            addresses = summarize(this.addresses, attempts);
+            this.attempts = 0;
+            this.suppressed = 0;
+            this.names.clear();
+            this.addresses.clear();
+        }
+        if (attempts > 0) {
+            this.plugin.getMessageHelper().messagePermission("whitelist.notify", "whitelist-notify-summary", String.valueOf(attempts), names, addresses);
+        }
+        if (suppressed > 0) {
+            this.plugin.getMessageHelper().messagePermission("whitelist.notify", "whitelist-notify-suppressed", String.valueOf(suppressed));
+        }
+    }
+
+    /**
+     * Increments the counter of a key, unless too many keys are tracked
+     * already.
+     */
+    private static void count(final Map<String, int[]> counters, final String key) {
+        final int[] counter = counters.get(key);
+        if (counter != null) {
+            counter[0]++;
+        } else if (counters.size() < MAX_TRACKED) {
+            counters.put(key, new int[] { 1 });
+        }
+    }
+
+    /**
+     * Summarizes the counters as a list of the most frequent keys.
+     */
+    private static String summarize(final Map<String, int[]> counters, final int attempts) {
+        final List<Map.Entry<String, int[]>> entries = new ArrayList<Map.Entry<String, int[]>>(counters.entrySet());
+        Collections.sort(entries, (a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+
+        final StringBuilder sb = new StringBuilder();
+        int listed = 0;
+        for (final Map.Entry<String, int[]> entry : entries) {
+            if (listed == MAX_LISTED) {
+                break;
+            }
+            if (listed > 0) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey());
+            if (entry.getValue()[0] > 1) {
+                sb.append(" (").append(entry.getValue()[0]).append("x)");
+            }
+            listed++;
+        }
+
+        // Everything not listed, where a trailing + means some keys were not
+        // tracked at all
+        int counted = 0;
+        for (final Map.Entry<String, int[]> entry : entries) {
+            counted += entry.getValue()[0];
+        }
+        if (entries.size() > listed || counted < attempts) {
+            sb.append(" (+").append(entries.size() - listed).append(counted < attempts ? "+" : "").append(" more)");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,3 @@
+CREATE INDEX "playerStatistics_open" ON "playerStatistics" ( "disconnectTime", "player", "server" );
+
+CREATE INDEX "serverStatistics_playerCount" ON "serverStatistics" ( "server", "time", "playerCount" );
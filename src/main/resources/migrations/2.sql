@@ -0,0 +1,21 @@
+CREATE TABLE "playerStatistics_new" (
+	"id" INTEGER NOT NULL,
+	"player" TEXT NOT NULL,
+	"connectTime" INTEGER NOT NULL,
+	"disconnectTime" INTEGER DEFAULT NULL,
+	"server" TEXT NOT NULL,
+	PRIMARY KEY ( "id" ),
+	FOREIGN KEY ( "player" ) REFERENCES "players" ( "uuid" ) ON DELETE CASCADE ON UPDATE CASCADE,
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+INSERT INTO "playerStatistics_new" ( "player", "connectTime", "disconnectTime", "server" )
+	SELECT "player", "connectTime", "disconnectTime", "server" FROM "playerStatistics" ORDER BY "connectTime";
+
+DROP TABLE "playerStatistics";
+
+ALTER TABLE "playerStatistics_new" RENAME TO "playerStatistics";
+
+CREATE INDEX "playerStatistics_open" ON "playerStatistics" ( "disconnectTime", "player", "server" );
+
+CREATE INDEX "playerStatistics_player" ON "playerStatistics" ( "player", "connectTime" );
@@ -0,0 +1,51 @@
+CREATE TABLE "serverStatisticsMinute" (
+	"server" TEXT NOT NULL,
+	"time" INTEGER NOT NULL,
+	"minPlayerCount" INTEGER NOT NULL,
+	"maxPlayerCount" INTEGER NOT NULL,
+	"avgPlayerCount" REAL NOT NULL,
+	PRIMARY KEY ( "server", "time" ),
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE TABLE "serverStatisticsHour" (
+	"server" TEXT NOT NULL,
+	"time" INTEGER NOT NULL,
+	"minPlayerCount" INTEGER NOT NULL,
+	"maxPlayerCount" INTEGER NOT NULL,
+	"avgPlayerCount" REAL NOT NULL,
+	PRIMARY KEY ( "server", "time" ),
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE TABLE "serverStatisticsDay" (
+	"server" TEXT NOT NULL,
+	"time" INTEGER NOT NULL,
+	"minPlayerCount" INTEGER NOT NULL,
+	"maxPlayerCount" INTEGER NOT NULL,
+	"avgPlayerCount" REAL NOT NULL,
+	PRIMARY KEY ( "server", "time" ),
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE INDEX "serverStatistics_time" ON "serverStatistics" ( "time" );
+
+CREATE INDEX "serverStatisticsMinute_time" ON "serverStatisticsMinute" ( "time" );
+
+CREATE INDEX "serverStatisticsHour_time" ON "serverStatisticsHour" ( "time" );
+
+CREATE INDEX "serverStatisticsDay_time" ON "serverStatisticsDay" ( "time" );
+
+INSERT INTO "serverStatisticsHour" ( "server", "time", "minPlayerCount", "maxPlayerCount", "avgPlayerCount" )
+	WITH RECURSIVE "parts" ( "server", "start", "end", "playerCount" ) AS (
+		SELECT "server", COALESCE( ( SELECT MAX( "p"."time" ) FROM "serverStatistics" "p" WHERE "p"."server" = "s"."server" AND "p"."time" < "s"."time" ), "time" ), "time", "playerCount" FROM "serverStatistics" "s"
+		UNION ALL
+		SELECT "server", ( "start" / 3600 + 1 ) * 3600, "end", "playerCount" FROM "parts" WHERE ( "start" / 3600 + 1 ) * 3600 < "end"
+	)
+	SELECT "server", "start" / 3600 * 3600, MIN( "playerCount" ), MAX( "playerCount" ),
+		COALESCE( SUM( "playerCount" * ( MIN( "end", ( "start" / 3600 + 1 ) * 3600 ) - "start" ) ) * 1.0 / NULLIF( SUM( MIN( "end", ( "start" / 3600 + 1 ) * 3600 ) - "start" ), 0 ), AVG( "playerCount" ) )
+	FROM "parts" WHERE "start" < CAST( strftime( '%s', 'now' ) AS INTEGER ) / 3600 * 3600 GROUP BY "server", "start" / 3600;
+
+INSERT INTO "serverStatisticsDay" ( "server", "time", "minPlayerCount", "maxPlayerCount", "avgPlayerCount" )
+	SELECT "server", "time" / 86400 * 86400, MIN( "minPlayerCount" ), MAX( "maxPlayerCount" ), AVG( "avgPlayerCount" ) FROM "serverStatisticsHour"
+	WHERE "time" < CAST( strftime( '%s', 'now' ) AS INTEGER ) / 86400 * 86400 GROUP BY "server", "time" / 86400;
@@ -0,0 +1,9 @@
+CREATE TABLE "serverHeartbeats" (
+	"server" TEXT NOT NULL,
+	"time" INTEGER NOT NULL,
+	PRIMARY KEY ( "server" ),
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+INSERT INTO "serverHeartbeats" ( "server", "time" )
+	SELECT "server", MAX( "time" ) FROM "serverStatistics" WHERE "playerCount" > 0 GROUP BY "server";
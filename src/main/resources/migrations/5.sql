@@ -0,0 +1,15 @@
+ALTER TABLE "players" ADD COLUMN "removedTime" INTEGER DEFAULT NULL;
+
+CREATE INDEX "players_removedTime" ON "players" ( "removedTime" );
+
+CREATE TABLE "playerStatisticsArchive" (
+	"id" INTEGER NOT NULL,
+	"player" TEXT NOT NULL,
+	"name" TEXT NOT NULL,
+	"connectTime" INTEGER NOT NULL,
+	"disconnectTime" INTEGER DEFAULT NULL,
+	"server" TEXT NOT NULL,
+	PRIMARY KEY ( "id" )
+);
+
+CREATE INDEX "playerStatisticsArchive_player" ON "playerStatisticsArchive" ( "player", "connectTime" );
@@ -0,0 +1,21 @@
+CREATE TABLE "playerPlaytime" (
+	"player" TEXT NOT NULL,
+	"server" TEXT NOT NULL,
+	"day" INTEGER NOT NULL,
+	"seconds" INTEGER NOT NULL,
+	PRIMARY KEY ( "player", "server", "day" ),
+	FOREIGN KEY ( "player" ) REFERENCES "players" ( "uuid" ) ON DELETE CASCADE ON UPDATE CASCADE,
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE INDEX "playerPlaytime_day" ON "playerPlaytime" ( "day", "player", "seconds" );
+
+CREATE INDEX "playerPlaytime_server" ON "playerPlaytime" ( "server", "day", "player", "seconds" );
+
+INSERT INTO "playerPlaytime" ( "player", "server", "day", "seconds" )
+	WITH RECURSIVE "parts" ( "player", "server", "start", "end" ) AS (
+		SELECT "player", "server", "connectTime", "disconnectTime" FROM "playerStatistics" WHERE "disconnectTime" > "connectTime"
+		UNION ALL
+		SELECT "player", "server", ( "start" / 86400 + 1 ) * 86400, "end" FROM "parts" WHERE ( "start" / 86400 + 1 ) * 86400 < "end"
+	)
+	SELECT "player", "server", "start" / 86400 * 86400, SUM( MIN( "end", ( "start" / 86400 + 1 ) * 86400 ) - "start" ) FROM "parts" GROUP BY "player", "server", "start" / 86400;
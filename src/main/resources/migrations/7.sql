@@ -0,0 +1,5 @@
+CREATE TABLE "exportWatermarks" (
+	"name" TEXT NOT NULL,
+	"time" INTEGER NOT NULL,
+	PRIMARY KEY ( "name" )
+);
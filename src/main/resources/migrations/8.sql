@@ -0,0 +1,25 @@
+CREATE TABLE "playerPlaytimeTotals" (
+	"player" TEXT NOT NULL,
+	"seconds" INTEGER NOT NULL,
+	PRIMARY KEY ( "player" ),
+	FOREIGN KEY ( "player" ) REFERENCES "players" ( "uuid" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE INDEX "playerPlaytimeTotals_seconds" ON "playerPlaytimeTotals" ( "seconds", "player" );
+
+CREATE TABLE "playerPlaytimeServerTotals" (
+	"player" TEXT NOT NULL,
+	"server" TEXT NOT NULL,
+	"seconds" INTEGER NOT NULL,
+	PRIMARY KEY ( "player", "server" ),
+	FOREIGN KEY ( "player" ) REFERENCES "players" ( "uuid" ) ON DELETE CASCADE ON UPDATE CASCADE,
+	FOREIGN KEY ( "server" ) REFERENCES "servers" ( "name" ) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE INDEX "playerPlaytimeServerTotals_seconds" ON "playerPlaytimeServerTotals" ( "server", "seconds", "player" );
+
+INSERT INTO "playerPlaytimeTotals" ( "player", "seconds" )
+	SELECT "player", SUM( "seconds" ) FROM "playerPlaytime" GROUP BY "player";
+
+INSERT INTO "playerPlaytimeServerTotals" ( "player", "server", "seconds" )
+	SELECT "player", "server", SUM( "seconds" ) FROM "playerPlaytime" GROUP BY "player", "server";